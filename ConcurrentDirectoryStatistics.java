@@ -0,0 +1,321 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe statistics shared by the threads of a parallel scan.
+ * Counters are striped LongAdders, the largest file is replaced with a
+ * compare-and-set and extensions are kept in a ConcurrentHashMap, so
+ * no update takes a lock shared between threads. Each thread also caches
+ * the totals of the extensions it has seen, looked up in place in the
+ * paths, so that a file of a known extension allocates nothing. The
+ * errors go to a ScanErrors, which is lock-free as well. Each thread keeps its own
+ * largest files, which are merged when they are read.
+ */
+public class ConcurrentDirectoryStatistics extends DirectoryStatistics {
+
+    private final LongAdder totalSize = new LongAdder();
+    private final LongAdder totalAllocatedSize = new LongAdder();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder directoryCount = new LongAdder();
+    private final LongAdder duplicateInodeCount = new LongAdder();
+    private final AtomicReference<LargestFile> largestFile = new AtomicReference<>(new LargestFile(0, ""));
+    private final int topFileCount;
+    private final ConcurrentLinkedQueue<TopKFiles> threadLargestFiles = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<TopKFiles> largestFiles;
+    private final ConcurrentHashMap<String, ExtensionTotals> extensionSizes = new ConcurrentHashMap<>();
+    private final ThreadLocal<ExtensionCache> extensionCaches = ThreadLocal.withInitial(ExtensionCache::new);
+    private final ConcurrentLinkedQueue<String> skippedMountPoints = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Immutable size and name of a file, swapped as a whole
+     */
+    private static final class LargestFile {
+        final long size;
+        final String name;
+
+        LargestFile(long size, String name) {
+            this.size = size;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Apparent and allocated sizes of one extension
+     */
+    private static final class ExtensionTotals {
+        final LongAdder size = new LongAdder();
+        final LongAdder allocatedSize = new LongAdder();
+    }
+
+    /**
+     * Extensions already seen by one thread and their shared totals
+     */
+    private final class ExtensionCache {
+        private String[] keys = new String[64];
+        private ExtensionTotals[] totals = new ExtensionTotals[64];
+        private int count;
+
+        /**
+         * finds the totals of the extension of a file, building the
+         * extension only the first time the thread sees it
+         */
+        ExtensionTotals get(String path) {
+            int start = ExtensionTable.extensionStart(path);
+            int i = ExtensionTable.slot(keys, path, start);
+            if (keys[i] == null) {
+                String extension = ExtensionTable.extension(path, start);
+                ExtensionTotals added = extensionSizes.computeIfAbsent(extension, k -> new ExtensionTotals());
+                keys[i] = extension;
+                totals[i] = added;
+                if (++count * 2 > keys.length) {
+                    resize();
+                }
+                return added;
+            }
+            return totals[i];
+        }
+
+        private void resize() {
+            String[] oldKeys = keys;
+            ExtensionTotals[] oldTotals = totals;
+            keys = new String[oldKeys.length * 2];
+            totals = new ExtensionTotals[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int j = ExtensionTable.slot(keys, oldKeys[i], 0);
+                    keys[j] = oldKeys[i];
+                    totals[j] = oldTotals[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Default constructor, keeps the 10 largest files
+     */
+    public ConcurrentDirectoryStatistics() {
+        this(DEFAULT_TOP_FILE_COUNT);
+    }
+
+    /**
+     * Constructor
+     * @param topFileCount the number of largest files to keep
+     */
+    public ConcurrentDirectoryStatistics(int topFileCount) {
+        this(topFileCount, new ScanErrors());
+    }
+
+    /**
+     * Constructor of statistics that report their errors to a shared collector
+     * @param topFileCount the number of largest files to keep
+     * @param errors the collector of the errors
+     */
+    ConcurrentDirectoryStatistics(int topFileCount, ScanErrors errors) {
+        super(topFileCount, errors);
+        this.topFileCount = topFileCount;
+        this.largestFiles = ThreadLocal.withInitial(() -> {
+            TopKFiles files = new TopKFiles(topFileCount);
+            threadLargestFiles.add(files);
+            return files;
+        });
+    }
+
+    @Override
+    public long getTotalSize() { return totalSize.sum(); }
+
+    @Override
+    public long getTotalAllocatedSize() { return totalAllocatedSize.sum(); }
+
+    @Override
+    public long getFileCount() { return fileCount.sum(); }
+
+    @Override
+    public long getDirectoryCount() { return directoryCount.sum(); }
+
+    @Override
+    public long getDuplicateInodeCount() { return duplicateInodeCount.sum(); }
+
+    @Override
+    public long getLargestFileSize() { return largestFile.get().size; }
+
+    @Override
+    public String getLargestFileName() { return largestFile.get().name; }
+
+    /**
+     * Merges the largest files of every thread
+     * @return a new array of the largest files, largest first
+     */
+    @Override
+    public LargeFile[] getLargestFiles() {
+        TopKFiles merged = new TopKFiles(topFileCount);
+        for (TopKFiles files : threadLargestFiles) {
+            synchronized (files) {
+                merged.merge(files);
+            }
+        }
+        return merged.toSortedArray();
+    }
+
+    @Override
+    public int getTopFileCount() { return topFileCount; }
+
+    /**
+     * Builds a snapshot of the extension table
+     * @return a new array with one pair (extension, size) per extension
+     */
+    @Override
+    public Pair[] getExtensionSizes() {
+        Pair[] pairs = new Pair[extensionSizes.size()];
+        int i = 0;
+        for (Map.Entry<String, ExtensionTotals> e : extensionSizes.entrySet()) {
+            if (i == pairs.length) {
+                break;
+            }
+            ExtensionTotals totals = e.getValue();
+            pairs[i++] = new Pair(e.getKey(), totals.size.sum(), totals.allocatedSize.sum());
+        }
+        return i == pairs.length ? pairs : Arrays.copyOf(pairs, i);
+    }
+
+    @Override
+    public long getExtensionCount() { return extensionSizes.size(); }
+
+    @Override
+    void incrementFileCount() {
+        fileCount.increment();
+    }
+
+    @Override
+    void incrementDirectoryCount() {
+        directoryCount.increment();
+    }
+
+    @Override
+    void incrementDuplicateInodeCount() {
+        duplicateInodeCount.increment();
+    }
+
+    @Override
+    void addToDuplicateInodeCount(long count) {
+        duplicateInodeCount.add(count);
+    }
+
+    @Override
+    void addToFileCount(long count) {
+        fileCount.add(count);
+    }
+
+    @Override
+    void addToDirectoryCount(long count) {
+        directoryCount.add(count);
+    }
+
+    @Override
+    void addToTotalSize(long size) {
+        totalSize.add(size);
+    }
+
+    @Override
+    void addToTotalAllocatedSize(long size) {
+        totalAllocatedSize.add(size);
+    }
+
+    /**
+     * tells if a file of the given size is one of the largest files
+     * of the calling thread
+     * @param size the size of the given file
+     * @return true if updateLargestFile would keep the file
+     */
+    @Override
+    boolean isLargeFileCandidate(long size) {
+        return largestFiles.get().accepts(size);
+    }
+
+    /**
+     * update the name and size of the largest file if the given size is
+     * greater than the current largest size, and keep the file in the
+     * largest files of the calling thread. The lock on those files is only
+     * contended by a reader of getLargestFiles
+     * @param size the size of the given file
+     * @param fileName the name of the given file
+     */
+    @Override
+    void updateLargestFile(long size, String fileName) {
+        TopKFiles files = largestFiles.get();
+        if (files.accepts(size)) {
+            synchronized (files) {
+                files.offer(size, fileName);
+            }
+        }
+        LargestFile current = largestFile.get();
+        if (size <= current.size) {
+            return;
+        }
+        LargestFile candidate = new LargestFile(size, fileName);
+        while (!largestFile.compareAndSet(current, candidate)) {
+            current = largestFile.get();
+            if (size <= current.size) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * adds size and allocatedSize to the totals of extension, the table
+     * is not limited in the number of extensions
+     * @param extension the name of the extension
+     * @param size the given size
+     * @param allocatedSize the given allocated size
+     */
+    @Override
+    void addExtensionSize(String extension, long size, long allocatedSize) {
+        ExtensionTotals totals = extensionSizes.get(extension);
+        if (totals == null) {
+            totals = extensionSizes.computeIfAbsent(extension, k -> new ExtensionTotals());
+        }
+        totals.size.add(size);
+        if (allocatedSize != 0) {
+            totals.allocatedSize.add(allocatedSize);
+        }
+    }
+
+    /**
+     * adds size and allocatedSize to the totals of the extension of a
+     * file, found through the cache of the calling thread
+     * @param path the path or the name of the file
+     * @param size the given size
+     * @param allocatedSize the given allocated size
+     */
+    @Override
+    void addExtensionSizeByPath(String path, long size, long allocatedSize) {
+        ExtensionTotals totals = extensionCaches.get().get(path);
+        totals.size.add(size);
+        if (allocatedSize != 0) {
+            totals.allocatedSize.add(allocatedSize);
+        }
+    }
+
+    /**
+     * removes an extension that has no file left, for statistics whose
+     * extensions are only updated through addExtensionSize: the caches of
+     * addExtensionSizeByPath would keep adding to the removed totals
+     * @param extension the name of the extension
+     */
+    void removeExtension(String extension) {
+        extensionSizes.remove(extension);
+    }
+
+    @Override
+    void addSkippedMountPoint(String path) {
+        skippedMountPoints.add(path);
+    }
+
+    @Override
+    public String[] getSkippedMountPoints() {
+        return skippedMountPoints.toArray(new String[0]);
+    }
+}
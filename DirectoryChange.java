@@ -0,0 +1,65 @@
+/**
+ * Change of the rolled-up size of one directory between two snapshots
+ */
+public class DirectoryChange {
+    private final String path;
+    private final int depth;
+    private final long oldSize;
+    private final long newSize;
+    private final long oldFileCount;
+    private final long newFileCount;
+
+    /**
+     * Constructor
+     * @param path the path of the directory
+     * @param depth the depth of the directory, 0 for the scanned directory
+     * @param oldSize the size of its subtree in the older snapshot, 0 if it is new
+     * @param newSize the size of its subtree in the newer snapshot, 0 if it was deleted
+     * @param oldFileCount the number of files of its subtree in the older snapshot
+     * @param newFileCount the number of files of its subtree in the newer snapshot
+     */
+    public DirectoryChange(String path, int depth, long oldSize, long newSize, long oldFileCount, long newFileCount) {
+        this.path = path;
+        this.depth = depth;
+        this.oldSize = oldSize;
+        this.newSize = newSize;
+        this.oldFileCount = oldFileCount;
+        this.newFileCount = newFileCount;
+    }
+
+    /**
+     * Getter for path
+     * @return the value of path
+     */
+    public String getPath() { return path; }
+    /**
+     * Getter for depth
+     * @return the value of depth
+     */
+    public int getDepth() { return depth; }
+    /**
+     * Getter for oldSize
+     * @return the value of oldSize
+     */
+    public long getOldSize() { return oldSize; }
+    /**
+     * Getter for newSize
+     * @return the value of newSize
+     */
+    public long getNewSize() { return newSize; }
+    /**
+     * Getter for oldFileCount
+     * @return the value of oldFileCount
+     */
+    public long getOldFileCount() { return oldFileCount; }
+    /**
+     * Getter for newFileCount
+     * @return the value of newFileCount
+     */
+    public long getNewFileCount() { return newFileCount; }
+    /**
+     * Getter for the growth of the directory
+     * @return newSize - oldSize, negative if it shrank
+     */
+    public long getDelta() { return newSize - oldSize; }
+}
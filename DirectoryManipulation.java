@@ -1,9 +1,20 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
 
 /**
  * File Manipulation
@@ -12,7 +23,205 @@ import java.util.*;
 public class DirectoryManipulation {
     
     private static final DecimalFormat SIZE_FORMAT = new DecimalFormat("#,##0.##");
-    private DirectoryStatistics stats = new DirectoryStatistics();
+    /** files searched by findWord at the same time, per thread */
+    private static final int WORD_SEARCH_WINDOW = 64;
+    private DirectoryStatistics stats;
+    private ScanBackend scanBackend = ScanBackend.FILE;
+    private final TreeWalker walker = new TreeWalker();
+    private boolean deduplicateInodes = false;
+    private SymlinkPolicy symlinkPolicy = SymlinkPolicy.FOLLOW;
+    private boolean allocatedSizeMode = false;
+    private boolean directoryTreeMode = false;
+    private PathFilter filter;
+    private boolean singleFileSystem = false;
+    private IoThrottle throttle;
+    /** file receiving the records of the scans, or null */
+    private Path exportFile;
+    private ExportFormat exportFormat;
+    /** live counters of the operations, or null */
+    private ScanMetrics metrics;
+    
+    /**
+     * Default constructor, the statistics keep the 10 largest files
+     */
+    public DirectoryManipulation() {
+        this(DirectoryStatistics.DEFAULT_TOP_FILE_COUNT);
+    }
+    
+    /**
+     * Constructor
+     * @param topFileCount the number of largest files kept in the statistics
+     */
+    public DirectoryManipulation(int topFileCount) {
+        stats = new DirectoryStatistics(topFileCount);
+    }
+    
+    /**
+     * Select the backend used by calculateDirectorySize and analyzeDirectory.
+     * NIO falls back to the java.io walk with inode deduplication, exclude
+     * patterns, or a scanned directory that is a link under SKIP.
+     * @param scanBackend FILE for the java.io walk, NIO for the java.nio.file walk
+     */
+    public void setScanBackend(ScanBackend scanBackend) {
+        if (scanBackend == null) {
+            throw new IllegalArgumentException("Invalid scan backend");
+        }
+        this.scanBackend = scanBackend;
+    }
+    
+    /**
+     * Select how symbolic links are treated by every walk: SKIP ignores
+     * them, FOLLOW follows them but never into a directory being walked,
+     * FOLLOW_ONCE follows them but walks each directory at most once.
+     * The default is FOLLOW. The parallel scan walks each directory at
+     * most once with both FOLLOW and FOLLOW_ONCE.
+     * @param symlinkPolicy the policy
+     */
+    public void setSymlinkPolicy(SymlinkPolicy symlinkPolicy) {
+        if (symlinkPolicy == null) {
+            throw new IllegalArgumentException("Invalid symlink policy");
+        }
+        this.symlinkPolicy = symlinkPolicy;
+        walker.setSymlinkPolicy(symlinkPolicy);
+    }
+    
+    /**
+     * Count every inode once in calculateDirectorySize and analyzeDirectory.
+     * Hard links to a file already counted and directories already walked
+     * through another path (bind mounts) are skipped and reported by
+     * DirectoryStatistics.getDuplicateInodeCount. Only files with more than
+     * one link are remembered, so the memory used grows with the number of
+     * hard-linked files and directories, not with the number of files.
+     * This mode reads the unix attributes of the entries and always uses the
+     * java.io walk, whatever the scan backend.
+     * @param deduplicateInodes true to count each inode once
+     * @throws UnsupportedOperationException if the file system has no unix attributes
+     */
+    public void setDeduplicateInodes(boolean deduplicateInodes) {
+        if (deduplicateInodes && !FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+            throw new UnsupportedOperationException("Inode deduplication needs unix file attributes");
+        }
+        this.deduplicateInodes = deduplicateInodes;
+    }
+    
+    /**
+     * Count the size allocated on disk by the files next to their apparent
+     * size, in every scan except watchDirectory. The allocated size of a
+     * file is its size rounded up to whole blocks of the file store of the
+     * scanned directory, read once per scan, and is reported by
+     * DirectoryStatistics.getTotalAllocatedSize and Pair.getAllocatedSize.
+     * The holes of sparse files are counted as allocated.
+     * @param allocatedSizeMode true to count allocated sizes
+     */
+    public void setAllocatedSizeMode(boolean allocatedSizeMode) {
+        this.allocatedSizeMode = allocatedSizeMode;
+    }
+    
+    /**
+     * Keep the rolled-up size and file count of every directory walked by
+     * calculateDirectorySize, analyzeDirectory and analyzeDirectoryIncremental
+     * in DirectoryStatistics.getDirectoryTree, so it can be listed down to a
+     * depth like du -d N, or queried for the heaviest directories, without
+     * scanning again. Other entries than regular files count as directories,
+     * like in the statistics, except in the incremental scan.
+     * @param directoryTreeMode true to keep the directory tree
+     */
+    public void setDirectoryTreeMode(boolean directoryTreeMode) {
+        this.directoryTreeMode = directoryTreeMode;
+    }
+    
+    /**
+     * Select the include and exclude patterns of calculateDirectorySize,
+     * analyzeDirectory and their parallel variants, findFile, findWord and
+     * watchDirectory.
+     * Excluded directories (".git", "node_modules"...) are pruned before
+     * they are listed; since walkFileTree lists a directory before it can
+     * be pruned, the NIO backend falls back to the java.io walk when there
+     * are exclude patterns. The watcher skips the excluded entries too.
+     * The incremental scan and cleanDirectory are not filtered.
+     * @param filter the compiled patterns, or null to walk every entry
+     */
+    public void setFilter(PathFilter filter) {
+        this.filter = filter;
+    }
+    
+    /**
+     * Stay on the file system of the scanned directory, like du -x: the
+     * device of the root is recorded, and a directory on another device
+     * (an NFS, FUSE or other mount) is neither counted nor walked, but
+     * reported by DirectoryStatistics.getSkippedMountPoints. This applies
+     * to every scan except the watcher, and to findFile, findWord and
+     * cleanDirectory. The default is to cross file systems.
+     * @param singleFileSystem true to stop at mount points
+     */
+    public void setSingleFileSystem(boolean singleFileSystem) {
+        this.singleFileSystem = singleFileSystem;
+        walker.setSingleFileSystem(singleFileSystem);
+    }
+    
+    /**
+     * Limit the I/O of every scan, of findFile, findWord and cleanDirectory
+     * to run them in the background: each stat, listing and file opened
+     * counts as a metadata operation, and findWord also counts the bytes
+     * it reads. The throttle can be shared by several instances and its
+     * limits changed while they run.
+     * @param throttle the limits, or null for no limit
+     */
+    public void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+        walker.setThrottle(throttle);
+    }
+    
+    /**
+     * Publish the progress and the operations of the scans, findFile,
+     * findWord and cleanDirectory into metrics that can be read while they
+     * run, or registered as an MXBean with ScanMetrics.register: the
+     * current directory, the files and bytes per second, the queued work
+     * and the count and latency of the listings, stats, reads and
+     * deletions. The watchers created after this call add their listings
+     * and stats to the counts, without changing the progress. The metrics
+     * can be shared by several instances.
+     * @param metrics the metrics, or null to stop publishing
+     */
+    public void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        walker.setMetrics(metrics);
+    }
+    
+    /**
+     * Write one record per file and per directory walked by
+     * calculateDirectorySize and analyzeDirectory to a file, as the walk
+     * happens: the path, the size, the modification time, the extension and
+     * the depth of the entry. Directories are written after their contents
+     * with the size of all the files below them. The records are encoded
+     * into a fixed buffer written to the file when it is full, so the
+     * export uses the same memory for any number of entries. Each scan
+     * replaces the content of the file. Entries that are not regular files
+     * are exported as directories, like they are counted. The parallel and
+     * incremental scans do not export.
+     * @param file name of the file, or null to stop exporting
+     * @param format the format of the records
+     * @throws IllegalArgumentException if file is given without a format
+     */
+    public void setExport(String file, ExportFormat format) {
+        if (file != null && format == null) {
+            throw new IllegalArgumentException("Invalid export format");
+        }
+        this.exportFile = file == null ? null : Paths.get(file);
+        this.exportFormat = format;
+    }
+    
+    /**
+     * Append every error of the next scans into these statistics to a file, one line per entry
+     * that could not be read: the cause, the path and the message separated
+     * by tabs. The statistics count every error by cause but only keep the
+     * first ones and a sample of the others, the sink keeps them all.
+     * @param file name of the file, created if it does not exist, or null to close the sink
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    public void setErrorSink(String file) {
+        stats.getErrors().setSink(file == null ? null : Paths.get(file));
+    }
     
     /**
      * Calculate the total size of a directory recursively
@@ -30,41 +239,247 @@ public class DirectoryManipulation {
      * Calculate the total size of a directory recursively
      * @param directory File object representing the directory
      * @return Total size in bytes
+     * @throws UncheckedIOException if the export file cannot be written
      */
     public long calculateDirectorySize(File directory) throws IllegalArgumentException, SecurityException {
         validateDirectory(directory);
-        return calculateDirectorySizeRecursive(directory);
+        beginRun("scan " + directory.getPath(), stats::getFileCount, stats::getTotalSize, null);
+        try {
+            if (exportFile == null) {
+                return calculateDirectorySize(directory, null);
+            }
+            try (RecordExporter exporter = new RecordExporter(exportFile, exportFormat)) {
+                return calculateDirectorySize(directory, exporter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            endRun();
+        }
+    }
+
+    /**
+     * Scans a directory with the selected backend
+     * @param directory the validated directory
+     * @param exporter the writer of the records, or null
+     * @return Total size in bytes
+     */
+    private long calculateDirectorySize(File directory, RecordExporter exporter) {
+        if (useNioScanner(directory)) {
+            return new NioDirectoryScanner(stats, symlinkPolicy, blockSize(directory), directoryTree(), filter, singleFileSystem, throttle,
+                    exporter, metrics).scan(directory.toPath());
+        }
+        return calculateDirectorySizeIterative(directory, exporter);
+    }
+
+    /**
+     * Tells if a scan can run on the NIO backend: walkFileTree opens a
+     * directory before the scanner can prune it, and does not enter a root
+     * that is a link when links are not followed, so exclude patterns and
+     * a linked root under SKIP fall back to the java.io walk, like inode
+     * deduplication
+     * @param directory the validated directory
+     * @return true to scan with NioDirectoryScanner
+     */
+    private boolean useNioScanner(File directory) {
+        return scanBackend == ScanBackend.NIO && !deduplicateInodes
+                && (filter == null || !filter.hasExcludes())
+                && !(symlinkPolicy == SymlinkPolicy.SKIP && TreeWalker.isSymbolicLink(directory));
     }
     
     /**
-     * Recursive method to calculate directory size with detailed statistics
-     * @param file Current file or directory being processed
-     * @param depth Current recursion depth
-     * @return Size of the current file/directory and all its contents
-     */
-    private long calculateDirectorySizeRecursive(File file) {
-         if (file.isFile()) {
-            long size = file.length();
-            stats.incrementFileCount();
-            stats.addToTotalSize(size);
-            stats.updateLargestFile(size, file.getAbsolutePath());
-            String ext = getFileExtension(file.getName());
-            stats.addExtensionSize(ext, size);
-            return size;
-        } else {
-            stats.incrementDirectoryCount();
-            long total = 0;
-            File[] contents = file.listFiles();
-            if (contents != null) {
-                for (File f : contents) {
-                    try {
-                        total += calculateDirectorySizeRecursive(f);
-                    } catch (SecurityException e) {
-                        stats.addInaccessiblePath(f.getAbsolutePath());
-                    }
+     * Calculate the total size of a directory using several threads
+     * @param directoryPath Path to the directory
+     * @param parallelism Number of worker threads to use
+     * @return Total size in bytes
+     * @throws IllegalArgumentException if path is invalid or parallelism is not positive
+     * @throws SecurityException if access is denied
+     */
+    public long calculateDirectorySizeParallel(String directoryPath, int parallelism) throws IllegalArgumentException, SecurityException {
+        File directory = new File(directoryPath);
+        return calculateDirectorySizeParallel(directory, parallelism);
+    }
+
+    /**
+     * Calculate the total size of a directory using several threads.
+     * Subdirectories are scanned by a fork-join pool with work-stealing
+     * into a ConcurrentDirectoryStatistics that is merged into the
+     * statistics at the end; the result is the same as the sequential scan.
+     * @param directory File object representing the directory
+     * @param parallelism Number of worker threads to use
+     * @return Total size in bytes
+     * @throws IllegalStateException if inode deduplication, the directory tree or the export is enabled
+     */
+    public long calculateDirectorySizeParallel(File directory, int parallelism) throws IllegalArgumentException, SecurityException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism");
+        }
+        if (deduplicateInodes) {
+            throw new IllegalStateException("Inode deduplication is not supported by the parallel scan");
+        }
+        if (directoryTreeMode) {
+            throw new IllegalStateException("The directory tree is not supported by the parallel scan");
+        }
+        if (exportFile != null) {
+            throw new IllegalStateException("The export is not supported by the parallel scan");
+        }
+        validateDirectory(directory);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // the errors go straight to the collector of stats and its sink
+            ConcurrentDirectoryStatistics partial = new ConcurrentDirectoryStatistics(stats.getTopFileCount(), stats.getErrors());
+            Set<Object> visited = null;
+            if (symlinkPolicy != SymlinkPolicy.SKIP) {
+                visited = ConcurrentHashMap.newKeySet();
+                Object key = TreeWalker.fileKey(directory);
+                if (key != null) {
+                    visited.add(key);
                 }
             }
+            beginRun("parallel scan " + directory.getPath(), partial::getFileCount, partial::getTotalSize,
+                    () -> pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount());
+            long total = pool.invoke(new DirectorySizeTask(directory, partial, visited, blockSize(directory),
+                    filter == null ? null : filter.bind(directory.getPath()), rootDevice(directory), throttle, metrics));
+            stats.merge(partial);
             return total;
+        } finally {
+            endRun();
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Iterative method to calculate directory size with detailed statistics
+     * @param root the directory being processed
+     * @param exporter the writer of the records, or null
+     * @return Size of the directory and all its contents
+     */
+    private long calculateDirectorySizeIterative(File root, RecordExporter exporter) {
+        SizeVisitor visitor = new SizeVisitor(deduplicateInodes ? new InodeSet() : null, blockSize(root), directoryTree(),
+                exporter);
+        walker.walk(root, visitor, filter);
+        return visitor.total;
+    }
+
+    /**
+     * Adds every file and directory of a walk to the statistics
+     */
+    private class SizeVisitor implements TreeWalker.Visitor {
+        /** inodes already counted, null when inodes are not deduplicated */
+        final InodeSet inodes;
+        /** block size of the file store, 0 when allocated sizes are not counted */
+        final long blockSize;
+        /** rolled-up sizes of the directories, null when they are not kept */
+        final DirectoryTree tree;
+        /** writer of the records, null when nothing is exported */
+        final RecordExporter exporter;
+        /** index in tree of the directory being walked */
+        int current = -1;
+        /** last directory added to tree or entered in exporter, closed by visitFailed if it cannot be listed */
+        File opened;
+        long total;
+
+        SizeVisitor(InodeSet inodes, long blockSize, DirectoryTree tree, RecordExporter exporter) {
+            this.inodes = inodes;
+            this.blockSize = blockSize;
+            this.tree = tree;
+            this.exporter = exporter;
+        }
+
+        @Override
+        public void visitFile(File file) {
+            long size;
+            if (inodes == null) {
+                size = file.length();
+            } else {
+                Map<String, Object> attrs = readUnixAttributes(file, "unix:dev,ino,nlink,size");
+                if (attrs == null) {
+                    size = file.length();
+                } else if ((Integer) attrs.get("nlink") > 1
+                        && !inodes.add((Long) attrs.get("dev"), (Long) attrs.get("ino"))) {
+                    stats.incrementDuplicateInodeCount();
+                    return;
+                } else {
+                    size = (Long) attrs.get("size");
+                }
+            }
+            total += size;
+            if (tree != null) {
+                tree.addFile(current, size);
+            }
+            if (exporter != null) {
+                exporter.file(file.getPath(), size, file.lastModified());
+            }
+            // getPath returns the field of the File, getName would copy the name
+            stats.addFileByPath(file.getPath(), size, allocatedSize(size, blockSize));
+            if (stats.isLargeFileCandidate(size)) {
+                stats.updateLargestFile(size, file.getAbsolutePath());
+            }
+        }
+
+        @Override
+        public boolean preVisitDirectory(File directory) {
+            if (inodes != null) {
+                Map<String, Object> attrs = readUnixAttributes(directory, "unix:dev,ino");
+                if (attrs != null && !inodes.add((Long) attrs.get("dev"), (Long) attrs.get("ino"))) {
+                    stats.incrementDuplicateInodeCount();
+                    return false;
+                }
+            }
+            stats.incrementDirectoryCount();
+            if (tree != null) {
+                current = tree.addDirectory(current, current < 0 ? directory.getAbsolutePath() : directory.getName());
+                opened = directory;
+            }
+            if (exporter != null) {
+                exporter.enterDirectory(directory.lastModified());
+                opened = directory;
+            }
+            return true;
+        }
+
+        @Override
+        public void postVisitDirectory(File directory) {
+            if (tree != null) {
+                current = tree.close(current);
+            }
+            if (exporter != null) {
+                exporter.exitDirectory(directory.getPath());
+            }
+        }
+
+        @Override
+        public void visitMountPoint(File directory) {
+            stats.addSkippedMountPoint(directory.getAbsolutePath());
+        }
+
+        @Override
+        public void visitFailed(File file, SecurityException e) {
+            stats.addError(file.getAbsolutePath(), e);
+            if (file == opened) {
+                // added by preVisitDirectory but not listed, so never post-visited
+                postVisitDirectory(file);
+                opened = null;
+            }
+        }
+
+        @Override
+        public void listFailed(File directory, Exception e) {
+            stats.addError(directory.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Reads unix attributes of a file, following symbolic links like java.io
+     * @param file the file
+     * @param attributes the attributes to read, e.g. "unix:dev,ino"
+     * @return the attributes, or null if they cannot be read
+     */
+    private static Map<String, Object> readUnixAttributes(File file, String attributes) {
+        try {
+            return Files.readAttributes(file.toPath(), attributes);
+        } catch (IOException | InvalidPathException e) {
+            return null;
         }
     }
     
@@ -87,6 +502,350 @@ public class DirectoryManipulation {
          calculateDirectorySize(directory);
         return stats;
     }
+
+    /**
+     * Get detailed analysis of directory with statistics using several threads
+     * @param directory name of the directory to analyze
+     * @param parallelism Number of worker threads to use
+     * @return DirectoryStatistics object with detailed information
+     */
+    public DirectoryStatistics analyzeDirectoryParallel(String directory, int parallelism) {
+        calculateDirectorySizeParallel(directory, parallelism);
+        return stats;
+    }
+    
+    /**
+     * Estimate the statistics of a huge directory from a random sample of
+     * its subdirectories, with a 95% confidence interval for every value.
+     * The directories down to fullDepth are listed with all their
+     * subdirectories; from fullDepth to sampleDepth only a random fraction
+     * of the subdirectories of each directory (at least two) is visited
+     * and extrapolated; the sampled subtrees below sampleDepth are scanned
+     * completely. The estimate does not change the statistics of this
+     * object, and follows the symlink policy, the filter, the single file
+     * system mode and the throttle.
+     * @param directory name of the directory to estimate
+     * @param fullDepth the depth down to which every subdirectory is visited
+     * @param sampleDepth the depth down to which subdirectories are sampled
+     * @param sampleFraction the fraction of subdirectories visited, in (0, 1]
+     * @param seed the seed of the random sample, the same seed gives the
+     * same estimate of an unchanged tree
+     * @return the estimated statistics and their errors
+     * @throws IllegalArgumentException if the path or a parameter is invalid
+     */
+    public EstimatedDirectoryStatistics estimateDirectory(String directory, int fullDepth, int sampleDepth,
+            double sampleFraction, long seed) {
+        if (fullDepth < 0 || sampleDepth < fullDepth) {
+            throw new IllegalArgumentException("Invalid depth");
+        }
+        if (!(sampleFraction > 0 && sampleFraction <= 1)) {
+            throw new IllegalArgumentException("Invalid sample fraction");
+        }
+        File dir = new File(directory);
+        validateDirectory(dir);
+        EstimatedDirectoryStatistics estimate = new EstimatedDirectoryStatistics(stats.getTopFileCount());
+        DirectorySizeEstimator estimator = new DirectorySizeEstimator(walker, estimate, fullDepth, sampleDepth,
+                sampleFraction, seed);
+        estimator.setSymlinkPolicy(symlinkPolicy);
+        estimator.setFilter(filter);
+        estimator.setRootDevice(rootDevice(dir));
+        estimator.setThrottle(throttle);
+        return estimator.estimate(dir);
+    }
+    
+    /**
+     * Get detailed analysis of directory, reusing the index of a previous run.
+     * The modification time of every directory is read, and only the
+     * directories modified since the previous run started, or less than
+     * two seconds before it, are listed again; the files of the others are
+     * taken from the index. The walk is iterative, like analyzeDirectory.
+     * The index is then rewritten with the result of this run.
+     * The cost is still one attribute read per directory: a change deep in
+     * the tree only modifies the directory that holds it, not its
+     * ancestors, so the subtotal of a subtree cannot be reused from the
+     * modification time of its root.
+     * A file rewritten in place (appended to, truncated) does not modify
+     * its directory, so its change is NOT detected: it keeps the size of
+     * the previous run until an entry of its directory is created, deleted
+     * or renamed. The statistics count the directories taken from the
+     * index in getReusedDirectoryCount, and the detailed report warns
+     * about them. Use analyzeDirectory when in-place changes matter.
+     * @param directory name of the directory to analyze
+     * @param indexFile name of the index file, created if it does not exist
+     * @return DirectoryStatistics object with detailed information
+     * @throws UncheckedIOException if the index cannot be written
+     * @throws IllegalStateException if the export is enabled
+     */
+    public DirectoryStatistics analyzeDirectoryIncremental(String directory, String indexFile) {
+        if (exportFile != null) {
+            throw new IllegalStateException("The export is not supported by the incremental scan");
+        }
+        File dir = new File(directory);
+        validateDirectory(dir);
+        Path indexPath = Paths.get(indexFile);
+        ScanIndex previous;
+        try {
+            previous = ScanIndex.load(indexPath);
+        } catch (IOException e) {
+            // unreadable, corrupt or older index, scan everything again
+            previous = new ScanIndex(0);
+        }
+        // taken before the first listing, so a directory changed during the scan is listed again next time
+        ScanIndex current = new ScanIndex(System.currentTimeMillis());
+        beginRun("incremental scan " + dir.getPath(), stats::getFileCount, stats::getTotalSize, null);
+        try {
+            walker.walk(dir.getAbsoluteFile(), new IncrementalVisitor(previous, current, blockSize(dir), directoryTree()));
+        } finally {
+            endRun();
+        }
+        try {
+            current.save(indexPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stats;
+    }
+
+    /**
+     * Adds the files of every directory of a walk to the statistics, taking
+     * the entries of the directories that were not modified from the index
+     * of the previous run and listing the others. The walker is given the
+     * subdirectories of the record, so it never lists a directory itself.
+     */
+    private class IncrementalVisitor implements TreeWalker.Visitor {
+        /** the index of the previous run */
+        final ScanIndex previous;
+        /** the index of this run */
+        final ScanIndex current;
+        /** block size of the file store, 0 when allocated sizes are not counted */
+        final long blockSize;
+        /** rolled-up sizes of the directories, null when they are not kept */
+        final DirectoryTree tree;
+        /** index in tree of the directory being walked */
+        int node = -1;
+        /** last directory added to tree, closed by visitFailed if it is not walked */
+        File opened;
+        /** entries of the directory passed to preVisitDirectory, until entries takes them */
+        ScanIndex.DirectoryRecord record;
+
+        IncrementalVisitor(ScanIndex previous, ScanIndex current, long blockSize, DirectoryTree tree) {
+            this.previous = previous;
+            this.current = current;
+            this.blockSize = blockSize;
+            this.tree = tree;
+        }
+
+        /**
+         * A subdirectory of a record that became a file since it was
+         * listed is counted as a file
+         */
+        @Override
+        public void visitFile(File file) {
+            addFile(file.getParent(), file.getName(), file.length());
+        }
+
+        @Override
+        public boolean preVisitDirectory(File directory) {
+            stats.incrementDirectoryCount();
+            String path = directory.getPath();
+            long lastModified = directory.lastModified();
+            ScanIndex.DirectoryRecord r = previous.getUnchanged(path, lastModified);
+            if (r == null) {
+                r = listDirectory(directory, lastModified);
+            } else {
+                stats.incrementReusedDirectoryCount();
+            }
+            current.put(path, r);
+            if (tree != null) {
+                node = tree.addDirectory(node, node < 0 ? path : directory.getName());
+                opened = directory;
+            }
+            for (int i = 0; i < r.fileNames.length; i++) {
+                addFile(path, r.fileNames[i], r.fileSizes[i]);
+            }
+            // like the other scans, other entries count as empty directories
+            stats.addToDirectoryCount(r.otherCount);
+            record = r;
+            return true;
+        }
+
+        @Override
+        public Iterator<Path> entries(File directory) {
+            String[] names = record.subdirectories;
+            record = null;
+            Path parent = directory.toPath();
+            List<Path> entries = new ArrayList<>(names.length);
+            for (String name : names) {
+                entries.add(parent.resolve(name));
+            }
+            return entries.iterator();
+        }
+
+        @Override
+        public void postVisitDirectory(File directory) {
+            if (tree != null) {
+                node = tree.close(node);
+            }
+        }
+
+        @Override
+        public void visitMountPoint(File directory) {
+            stats.addSkippedMountPoint(directory.getPath());
+        }
+
+        @Override
+        public void visitFailed(File file, SecurityException e) {
+            stats.addError(file.getPath(), e);
+            if (file == opened) {
+                // added by preVisitDirectory but not walked, so never post-visited
+                postVisitDirectory(file);
+                opened = null;
+            }
+        }
+
+        /**
+         * Adds a file of a directory to the statistics and the tree
+         */
+        private void addFile(String directory, String name, long size) {
+            if (tree != null) {
+                tree.addFile(node, size);
+            }
+            stats.addFileByPath(name, size, allocatedSize(size, blockSize));
+            if (stats.isLargeFileCandidate(size)) {
+                stats.updateLargestFile(size, directory + File.separator + name);
+            }
+        }
+    }
+
+    /**
+     * Lists a directory into a new index record
+     * @param directory the directory to list
+     * @param lastModified the modification time of directory
+     * @return the entries of directory
+     */
+    private ScanIndex.DirectoryRecord listDirectory(File directory, long lastModified) {
+        List<String> fileNames = new ArrayList<>();
+        List<Long> fileSizes = new ArrayList<>();
+        List<String> subdirectories = new ArrayList<>();
+        int otherCount = 0;
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        ScanMetrics.Recorder recorder = metrics == null ? null : metrics.recorder();
+        try (DirectoryStream<Path> stream = newDirectoryStream(directory, recorder)) {
+            for (Path entry : stream) {
+                File f = entry.toFile();
+                if (throttle != null) {
+                    throttle.acquireMetadataOps(1);
+                }
+                try {
+                    if (symlinkPolicy == SymlinkPolicy.SKIP && TreeWalker.isSymbolicLink(f)) {
+                        continue;
+                    }
+                    if (TreeWalker.isFile(f, recorder)) {
+                        fileNames.add(f.getName());
+                        fileSizes.add(f.length());
+                    } else if (f.isDirectory()) {
+                        subdirectories.add(f.getName());
+                    } else {
+                        otherCount++;
+                    }
+                } catch (SecurityException e) {
+                    stats.addError(f.getAbsolutePath(), e);
+                }
+            }
+        } catch (IOException | InvalidPathException | DirectoryIteratorException e) {
+            // like listFiles returning null, the record keeps the entries read so far
+            if (TreeWalker.isListingFailure(directory, e)) {
+                stats.addError(directory.getAbsolutePath(), e);
+            }
+        }
+        long[] sizes = new long[fileSizes.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = fileSizes.get(i);
+        }
+        return new ScanIndex.DirectoryRecord(lastModified, fileNames.toArray(new String[0]), sizes,
+                subdirectories.toArray(new String[0]), otherCount);
+    }
+    
+    /**
+     * Writes the rolled-up size of every directory of an analysis to a
+     * snapshot file, to be compared with the snapshot of another run by
+     * diffSnapshots
+     * @param stats statistics of an analysis made in directory tree mode
+     * @param snapshotFile name of the snapshot file, replaced if it exists
+     * @throws IllegalArgumentException if the statistics have no directory tree
+     * @throws UncheckedIOException if the snapshot cannot be written
+     */
+    public void saveSnapshot(DirectoryStatistics stats, String snapshotFile) {
+        if (stats.getDirectoryTree() == null) {
+            throw new IllegalArgumentException("The statistics have no directory tree");
+        }
+        try {
+            DirectorySnapshot.write(stats.getDirectoryTree(), Paths.get(snapshotFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compares two snapshots written by saveSnapshot, reading each of them
+     * once without loading it
+     * @param olderFile name of the snapshot of the earlier run
+     * @param newerFile name of the snapshot of the later run
+     * @param limit the maximum number of directories reported of each kind
+     * @return the growers, the shrinkers and the new and deleted subtrees
+     * @throws IllegalArgumentException if limit is negative
+     * @throws UncheckedIOException if a snapshot cannot be read or is corrupt
+     */
+    public SnapshotDiff diffSnapshots(String olderFile, String newerFile, int limit) {
+        try {
+            return SnapshotDiff.compare(Paths.get(olderFile), Paths.get(newerFile), limit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Opens a directory for listDirectory, counting a LIST
+     * @param directory the directory
+     * @param recorder the recorder of the metrics, or null
+     * @return the open stream
+     * @throws IOException if the directory cannot be opened
+     */
+    private static DirectoryStream<Path> newDirectoryStream(File directory, ScanMetrics.Recorder recorder) throws IOException {
+        if (recorder == null) {
+            return Files.newDirectoryStream(directory.toPath());
+        }
+        long start = recorder.start();
+        try {
+            return Files.newDirectoryStream(directory.toPath());
+        } finally {
+            recorder.record(ScanOperation.LIST, start);
+        }
+    }
+    
+    /**
+     * Scan a directory once and then keep its statistics up to date from
+     * file system events until the returned watcher is closed. The watcher
+     * follows the symlink policy, the filter and the number of largest
+     * files of this object, as they are when it is created, and counts its
+     * listings and stats in the metrics
+     * @param directory name of the directory to watch
+     * @return the watcher, whose getStatistics returns the live statistics
+     * @throws UncheckedIOException if the directory cannot be watched
+     */
+    public DirectoryWatcher watchDirectory(String directory) {
+        File dir = new File(directory);
+        validateDirectory(dir);
+        try {
+            DirectoryWatcher watcher = new DirectoryWatcher(dir.toPath(), symlinkPolicy, filter, stats.getTopFileCount(), metrics);
+            watcher.start();
+            return watcher;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
     
     /**
      * Validate that the given file is a valid directory
@@ -101,14 +860,108 @@ public class DirectoryManipulation {
         }
     }
     
+    /**
+     * Reads the block size of the file store of a directory once per scan
+     * @param directory the scanned directory
+     * @return the block size, or 0 if allocated sizes are not counted
+     * @throws UncheckedIOException if the file store cannot be read
+     */
+    private long blockSize(File directory) {
+        if (!allocatedSizeMode) {
+            return 0;
+        }
+        try {
+            return Files.getFileStore(directory.toPath()).getBlockSize();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (UnsupportedOperationException | InvalidPathException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the device of the scanned directory once per scan
+     * @param directory the scanned directory
+     * @return the device, or null if the scan may cross file systems
+     */
+    private Object rootDevice(File directory) {
+        return singleFileSystem ? TreeWalker.device(directory) : null;
+    }
+
+    /**
+     * Marks the start of an operation in the metrics, if any
+     * @param task the name of the operation and its directory
+     * @param files the counter of the files of the operation
+     * @param bytes the counter of the bytes of the operation
+     * @param queueDepth the counter of the work queued, or null for a sequential operation
+     */
+    private void beginRun(String task, LongSupplier files, LongSupplier bytes, LongSupplier queueDepth) {
+        if (metrics != null) {
+            metrics.begin(task, files, bytes, queueDepth == null ? () -> 0 : queueDepth);
+        }
+    }
+
+    /**
+     * Marks the end of the operation in the metrics, if any
+     */
+    private void endRun() {
+        if (metrics != null) {
+            metrics.end();
+        }
+    }
+
+    /**
+     * Counter of the files of the operations that only walk the tree
+     * @return the number of entries whose type was read, since the metrics were created
+     */
+    private long visitedEntries() {
+        return metrics == null ? 0 : metrics.getCount(ScanOperation.STAT);
+    }
+
+    /**
+     * Counter of the files of findWord
+     * @return the number of files read, since the metrics were created
+     */
+    private long readFiles() {
+        return metrics == null ? 0 : metrics.getCount(ScanOperation.READ);
+    }
+
+    /**
+     * Counter of the bytes of findWord
+     * @return the number of bytes read, since the metrics were created
+     */
+    private long readBytes() {
+        return metrics == null ? 0 : metrics.getBytesRead();
+    }
+
+    /**
+     * Getter for the directory tree of the statistics
+     * @return the tree, or null if the directory tree mode is disabled
+     */
+    private DirectoryTree directoryTree() {
+        return directoryTreeMode ? stats.getOrCreateDirectoryTree() : null;
+    }
+
+    /**
+     * Rounds the size of a file up to whole blocks
+     * @param size the apparent size of the file
+     * @param blockSize the block size of the file store, 0 if allocated sizes are not counted
+     * @return the size allocated on disk, 0 if blockSize is 0
+     */
+    static long allocatedSize(long size, long blockSize) {
+        if (blockSize <= 0) {
+            return 0;
+        }
+        return (size + blockSize - 1) / blockSize * blockSize;
+    }
+    
     /**
      * Get file extension from filename
      * @param fileName Name of the file
      * @return File extension (without dot) or "no extension"
      */
-    private String getFileExtension(String fileName) {
-       int i = fileName.lastIndexOf('.');
-        return (i != -1 && i < fileName.length() - 1) ? fileName.substring(i + 1) : "no extension";
+    static String getFileExtension(String fileName) {
+        return ExtensionTable.extension(fileName, ExtensionTable.extensionStart(fileName));
     }
     
     /**
@@ -143,15 +996,62 @@ public class DirectoryManipulation {
         System.out.println("SUMMARY:");
         System.out.println("--------");
         System.out.println("Total Size: " + formatBytes(stats.getTotalSize()) + " (" + SIZE_FORMAT.format(stats.getTotalSize()) + " bytes)");
+        boolean allocated = stats.getTotalAllocatedSize() > 0;
+        if (allocated) {
+            System.out.println("Allocated Size: " + formatBytes(stats.getTotalAllocatedSize()) + " (" + SIZE_FORMAT.format(stats.getTotalAllocatedSize()) + " bytes)");
+        }
         System.out.println("Files: " + SIZE_FORMAT.format(stats.getFileCount()));
         System.out.println("Directories: " + SIZE_FORMAT.format(stats.getDirectoryCount()));
+        if (stats.getDuplicateInodeCount() > 0) {
+            System.out.println("Duplicate inodes skipped: " + SIZE_FORMAT.format(stats.getDuplicateInodeCount()));
+        }
+        if (stats.getReusedDirectoryCount() > 0) {
+            System.out.println("Directories taken from the index: " + SIZE_FORMAT.format(stats.getReusedDirectoryCount())
+                    + " (files changed in place since the previous scan keep their old size)");
+        }
+        String[] mountPoints = stats.getSkippedMountPoints();
+        if (mountPoints.length > 0) {
+            System.out.println("Mount points skipped: " + SIZE_FORMAT.format(mountPoints.length));
+            for (String mountPoint : mountPoints) {
+                System.out.println("    " + mountPoint);
+            }
+        }
+        ScanErrors errors = stats.getErrors();
+        if (errors.getCount() > 0) {
+            System.out.println("Errors: " + SIZE_FORMAT.format(errors.getCount()));
+            for (ScanErrorCause cause : ScanErrorCause.values()) {
+                if (errors.getCount(cause) > 0) {
+                    System.out.println("    " + cause + ": " + SIZE_FORMAT.format(errors.getCount(cause)));
+                }
+            }
+            ScanError[] first = errors.getFirstErrors();
+            for (int i = 0; i < first.length && i < stats.getTopFileCount(); i++) {
+                String message = first[i].getMessage() == null ? first[i].getCause().toString() : first[i].getMessage();
+                System.out.println("    " + first[i].getPath() + " (" + message + ")");
+            }
+            if (errors.getSinkFailure() != null) {
+                System.out.println("    Error file closed early: " + errors.getSinkFailure());
+            }
+        }
         System.out.println();
         
         if (stats.getLargestFileSize() > 0) {
-            System.out.println("LARGEST FILE:");
-            System.out.println("-------------");
-            System.out.println("Size: " + formatBytes(stats.getLargestFileSize()));
-            System.out.println("File: " + stats.getLargestFileName());
+            System.out.println("LARGEST FILES:");
+            System.out.println("--------------");
+            LargeFile[] largest = stats.getLargestFiles();
+            for (int i = 0; i < largest.length; i++) {
+                System.out.printf("%3d. %15s  %s%n", i + 1, formatBytes(largest[i].getSize()), largest[i].getPath());
+            }
+            System.out.println();
+        }
+        
+        if (stats.getDirectoryTree() != null) {
+            System.out.println("LARGEST DIRECTORIES:");
+            System.out.println("--------------------");
+            DirectoryUsage[] heaviest = stats.getDirectoryTree().getHeaviestDirectories(stats.getTopFileCount());
+            for (int i = 0; i < heaviest.length; i++) {
+                System.out.printf("%3d. %15s  %s%n", i + 1, formatBytes(heaviest[i].getSize()), heaviest[i].getPath());
+            }
             System.out.println();
         }
         
@@ -160,15 +1060,21 @@ public class DirectoryManipulation {
             System.out.println("------------------");
             
             // Sort extensions by size (descending)
-            sortExtension();
-            Pair[] extensions = stats.getExtensionSizes();
-            long extCount = stats.getExtensionCount();
-            for (int i=0; i< (int)extCount ; i++) {
+            Pair[] extensions = stats.getRankedExtensions();
+            for (int i=0; i< extensions.length ; i++) {
                 double percentage = (double) extensions[i].getSize() / stats.getTotalSize() * 100;
-                System.out.printf("%-15s: %15s (%5.1f%%)%n", 
-                    extensions[i].getType(), 
-                    formatBytes(extensions[i].getSize()), 
-                    percentage);
+                if (allocated) {
+                    System.out.printf("%-15s: %15s (%5.1f%%) %15s allocated%n", 
+                        extensions[i].getType(), 
+                        formatBytes(extensions[i].getSize()), 
+                        percentage,
+                        formatBytes(extensions[i].getAllocatedSize()));
+                } else {
+                    System.out.printf("%-15s: %15s (%5.1f%%)%n", 
+                        extensions[i].getType(), 
+                        formatBytes(extensions[i].getSize()), 
+                        percentage);
+                }
             }
             System.out.println();
         }
@@ -176,24 +1082,47 @@ public class DirectoryManipulation {
         System.out.println("═══════════════════════════════════════");
     }
     /**
-     * sorts the array etxensionSizes by size
+     * Print the differences between two snapshots
+     * @param diff the result of diffSnapshots
      */
-    private void sortExtension(){
-         Pair[] arr = stats.getExtensionSizes();
-        int n = (int) stats.getExtensionCount();
-        for (int i = 0; i < n - 1; i++) {
-            int min = i;
-            for (int j = i + 1; j < n; j++) {
-                if (arr[j].getSize() < arr[min].getSize()) {
-                    min = j;
-                }
-            }
-            Pair temp = arr[i];
-            arr[i] = arr[min];
-            arr[min] = temp;
-        }
+    public void printSnapshotDiff(SnapshotDiff diff) {
+        System.out.println("═══════════════════════════════════════");
+        System.out.println("    Directory Growth");
+        System.out.println("═══════════════════════════════════════");
+        System.out.println("From: " + new Date(diff.getOldTime()));
+        System.out.println("To: " + new Date(diff.getNewTime()));
+        long growth = diff.getNewTotalSize() - diff.getOldTotalSize();
+        System.out.println("Total Size: " + formatBytes(diff.getOldTotalSize()) + " -> " + formatBytes(diff.getNewTotalSize())
+                + " (" + (growth < 0 ? "-" : "+") + formatBytes(Math.abs(growth)) + ")");
+        System.out.println("Changed directories: " + SIZE_FORMAT.format(diff.getChangedCount()));
+        System.out.println("New subtrees: " + SIZE_FORMAT.format(diff.getNewSubtreeCount()));
+        System.out.println("Deleted subtrees: " + SIZE_FORMAT.format(diff.getDeletedSubtreeCount()));
+        System.out.println();
+        printChanges("TOP GROWERS:", diff.getGrowers());
+        printChanges("TOP SHRINKERS:", diff.getShrinkers());
+        printChanges("NEW SUBTREES:", diff.getNewSubtrees());
+        printChanges("DELETED SUBTREES:", diff.getDeletedSubtrees());
+        System.out.println("═══════════════════════════════════════");
     }
 
+    /**
+     * Print one section of the differences between two snapshots
+     * @param title the title of the section
+     * @param changes the changes of the section, not printed if empty
+     */
+    private void printChanges(String title, DirectoryChange[] changes) {
+        if (changes.length == 0) {
+            return;
+        }
+        System.out.println(title);
+        System.out.println("-".repeat(title.length()));
+        for (int i = 0; i < changes.length; i++) {
+            long delta = changes[i].getDelta();
+            System.out.printf("%3d. %16s  %15s  %s%n", i + 1, (delta < 0 ? "-" : "+") + formatBytes(Math.abs(delta)),
+                    formatBytes(changes[i].getNewSize()), changes[i].getPath());
+        }
+        System.out.println();
+    }
     /**
      * 
      * @param directory the name of the file or directory
@@ -202,26 +1131,40 @@ public class DirectoryManipulation {
      * prints the absolute path of all the locations where filename was found
      */
     public boolean findFile(String directory, String filename){
-         File dir = new File(directory);
-        return findFileRecursive(dir, filename);
+        File dir = new File(directory);
+        FindFileVisitor visitor = new FindFileVisitor(filename);
+        beginRun("findFile " + dir.getPath(), this::visitedEntries, () -> 0, null);
+        try {
+            walker.walk(dir, visitor, filter);
+        } finally {
+            endRun();
+        }
+        return visitor.found;
     }
 
-    private boolean findFileRecursive(File file, String filename) {
-        boolean found = false;
-        if (file.isFile()) {
+    /**
+     * Prints the absolute path of every file named filename
+     */
+    private static class FindFileVisitor implements TreeWalker.Visitor {
+        final String filename;
+        boolean found;
+
+        FindFileVisitor(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        public void visitFile(File file) {
             if (file.getName().equals(filename)) {
                 System.out.println(file.getAbsolutePath());
-                return true;
-            }
-        } else {
-            File[] contents = file.listFiles();
-            if (contents != null) {
-                for (File f : contents) {
-                    found |= findFileRecursive(f, filename);
-                }
+                found = true;
             }
         }
-        return found;
+
+        @Override
+        public boolean preVisitDirectory(File directory) {
+            return true;
+        }
     }
     
     /**
@@ -230,32 +1173,66 @@ public class DirectoryManipulation {
      * prints the list of empty files deleted
      */
     public boolean cleanDirectory(String name){
-       File dir = new File(name);
-       return cleanDirectoryRecursive(dir);
+        File dir = new File(name);
+        CleanVisitor visitor = new CleanVisitor(metrics == null ? null : metrics.recorder());
+        beginRun("cleanDirectory " + dir.getPath(), this::visitedEntries, () -> 0, null);
+        try {
+            walker.walk(dir, visitor);
+        } finally {
+            endRun();
+        }
+        return visitor.removed;
     }
 
-     private boolean cleanDirectoryRecursive(File file) {
-        boolean removed = false;
-        if (file.isFile() && file.length() == 0) {
-            if (file.delete()) {
+    /**
+     * Deletes the empty files, and the directories that are empty once
+     * their contents were cleaned
+     */
+    private static class CleanVisitor implements TreeWalker.Visitor {
+        /** recorder of the walking thread, or null */
+        final ScanMetrics.Recorder recorder;
+        boolean removed;
+
+        CleanVisitor(ScanMetrics.Recorder recorder) {
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void visitFile(File file) {
+            if (file.length() == 0 && delete(file)) {
                 System.out.println("Deleted empty file: " + file.getAbsolutePath());
                 removed = true;
             }
-        } else if (file.isDirectory()) {
-            File[] contents = file.listFiles();
-            if (contents != null) {
-                for (File f : contents) {
-                    removed = cleanDirectoryRecursive(f);
-                }
+        }
+
+        @Override
+        public boolean preVisitDirectory(File directory) {
+            return directory.isDirectory();
+        }
+
+        @Override
+        public void postVisitDirectory(File directory) {
+            if (TreeWalker.isEmptyDirectory(directory) && delete(directory)) {
+                System.out.println("Deleted empty folder: " + directory.getAbsolutePath());
+                removed = true;
             }
-            if (file.listFiles().length == 0) {
-                if (file.delete()) {
-                    System.out.println("Deleted empty folder: " + file.getAbsolutePath());
-                    removed |= true;
-                }
+        }
+
+        /**
+         * Deletes an entry, timing a DELETE
+         * @return true if the entry was deleted
+         */
+        boolean delete(File file) {
+            if (recorder == null) {
+                return file.delete();
+            }
+            long start = recorder.time();
+            try {
+                return file.delete();
+            } finally {
+                recorder.record(ScanOperation.DELETE, start);
             }
         }
-        return removed;
     }
 
 
@@ -267,37 +1244,90 @@ public class DirectoryManipulation {
      * the number of occurences of the word in each file where the word was found
      */
     public boolean findWord(String directory, String word){
-         File dir = new File(directory);
-        return findWordRecursive(dir, word);
-    }
-
-    private boolean findWordRecursive(File file, String word) {
-        boolean found = false;
-        if (file.isFile()) {
-            int count = 0;
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    int index = -1;
-                    while ((index = line.indexOf(word, index + 1)) != -1) {
-                        count++;
-                    }
-                }
-            } catch (IOException e) {
-                return false;
-            }
-            if (count > 0) {
-                System.out.println(file.getName() + ": " + count);
-                found = true;
+        return findWord(directory, word, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Searches for the given word in all the files in the hierarchy of files/folder under directory,
+     * the files are searched in parallel but printed in the same order as a sequential search
+     * @param directory the name of the file or directory
+     * @param word the word being looked up
+     * @param parallelism Number of threads searching the files
+     * prints the files where the word was found and 
+     * the number of occurences of the word in each file where the word was found
+     */
+    public boolean findWord(String directory, String word, int parallelism){
+        File dir = new File(directory);
+        try (WordSearchEngine engine = new WordSearchEngine(word, parallelism, throttle, metrics)) {
+            WordVisitor visitor = new WordVisitor(engine, parallelism * WORD_SEARCH_WINDOW);
+            beginRun("findWord " + dir.getPath(), this::readFiles, this::readBytes, engine::queueDepth);
+            try {
+                walker.walk(dir, visitor, filter);
+                visitor.drain(0);
+            } finally {
+                endRun();
             }
-        } else {
-            File[] contents = file.listFiles();
-            if (contents != null) {
-                for (File f : contents) {
-                    found |= findWordRecursive(f, word);
-                }
+            return visitor.found;
+        }
+    }
+
+    /**
+     * Submits every file of a walk to the engine. When the window of files
+     * being searched is full, the oldest one is waited for and printed.
+     */
+    private static class WordVisitor implements TreeWalker.Visitor {
+        final WordSearchEngine engine;
+        final int window;
+        final ArrayDeque<File> files = new ArrayDeque<>();
+        final ArrayDeque<Future<Integer>> counts = new ArrayDeque<>();
+        boolean found;
+
+        WordVisitor(WordSearchEngine engine, int window) {
+            this.engine = engine;
+            this.window = window;
+        }
+
+        @Override
+        public void visitFile(File file) {
+            files.add(file);
+            counts.add(engine.submit(file));
+            drain(window);
+        }
+
+        @Override
+        public boolean preVisitDirectory(File directory) {
+            return true;
+        }
+
+        /**
+         * Prints the oldest files until at most max files are being searched
+         * @param max the number of files left being searched
+         */
+        void drain(int max) {
+            while (files.size() > max) {
+                found |= printWordCount(files.poll(), counts.poll());
             }
         }
-        return found;
+    }
+
+    /**
+     * Waits for the count of file and prints it if the word was found
+     * @return true if the word was found in file
+     */
+    private static boolean printWordCount(File file, Future<Integer> count) {
+        int n;
+        try {
+            n = count.get();
+        } catch (ExecutionException e) {
+            n = 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            n = 0;
+        }
+        if (n > 0) {
+            System.out.println(file.getName() + ": " + n);
+            return true;
+        }
+        return false;
     }
 }
\ No newline at end of file
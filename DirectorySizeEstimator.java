@@ -0,0 +1,359 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Estimates the size of a directory tree from a random sample.
+ * The directories above fullDepth are listed with all their
+ * subdirectories. From fullDepth to sampleDepth, each directory is listed
+ * but only a simple random sample of its subdirectories (a fraction of
+ * them, at least two) is estimated, and their sum is scaled by the number
+ * of subdirectories over the size of the sample. The subtrees below
+ * sampleDepth are scanned completely, so the estimate has no error there.
+ * This is a multistage Horvitz-Thompson estimator: it is unbiased, and its
+ * variance is estimated at each directory as the variance between the
+ * sampled subdirectories, corrected for the finite number of
+ * subdirectories, plus the scaled variances of their own estimates.
+ * The same estimate is made for the total size, the number of files, the
+ * number of directories and the size of every extension.
+ */
+class DirectorySizeEstimator {
+
+    private static final int SIZE = 0;
+    private static final int FILES = 1;
+    private static final int DIRECTORIES = 2;
+    private static final int QUANTITIES = 3;
+
+    private final TreeWalker walker;
+    private final EstimatedDirectoryStatistics stats;
+    private final int fullDepth;
+    private final int sampleDepth;
+    private final double sampleFraction;
+    private final SplittableRandom random;
+    private SymlinkPolicy symlinkPolicy = SymlinkPolicy.FOLLOW;
+    /** filter bound to the estimated directory, or null */
+    private PathFilter filter;
+    /** device of the estimated directory, null to cross file systems */
+    private Object rootDevice;
+    private IoThrottle throttle;
+    /** file keys of the directories listed, null when links are skipped */
+    private Set<Object> visited;
+    private long scannedFiles;
+    private long scannedDirectories;
+
+    /**
+     * Estimated values of one subtree and their variances
+     */
+    private static final class Estimate {
+        final double[] values = new double[QUANTITIES];
+        final double[] variances = new double[QUANTITIES];
+        /** size and variance of every extension */
+        final Map<String, double[]> extensions = new HashMap<>();
+
+        void addFile(String extension, long size) {
+            values[SIZE] += size;
+            values[FILES]++;
+            extensions.computeIfAbsent(extension, k -> new double[2])[0] += size;
+        }
+    }
+
+    /**
+     * Sums of the estimates of the sampled subdirectories of a directory
+     */
+    private static final class Sample {
+        final double[] sums = new double[QUANTITIES];
+        final double[] squares = new double[QUANTITIES];
+        final double[] variances = new double[QUANTITIES];
+        /** sum, sum of squares and sum of variances of every extension */
+        final Map<String, double[]> extensions = new HashMap<>();
+        int count;
+
+        void add(Estimate estimate) {
+            count++;
+            for (int q = 0; q < QUANTITIES; q++) {
+                sums[q] += estimate.values[q];
+                squares[q] += estimate.values[q] * estimate.values[q];
+                variances[q] += estimate.variances[q];
+            }
+            for (Map.Entry<String, double[]> e : estimate.extensions.entrySet()) {
+                double[] sum = extensions.computeIfAbsent(e.getKey(), k -> new double[3]);
+                double value = e.getValue()[0];
+                sum[0] += value;
+                sum[1] += value * value;
+                sum[2] += e.getValue()[1];
+            }
+        }
+
+        /**
+         * Adds the extrapolated sample to the estimate of its directory
+         * @param estimate the estimate of the directory
+         * @param population the number of subdirectories the sample was drawn from
+         */
+        void extrapolate(Estimate estimate, int population) {
+            if (count == 0) {
+                return;
+            }
+            double scale = (double) population / count;
+            for (int q = 0; q < QUANTITIES; q++) {
+                estimate.values[q] += scale * sums[q];
+                estimate.variances[q] += variance(population, sums[q], squares[q], variances[q]);
+            }
+            for (Map.Entry<String, double[]> e : extensions.entrySet()) {
+                double[] sum = e.getValue();
+                double[] total = estimate.extensions.computeIfAbsent(e.getKey(), k -> new double[2]);
+                total[0] += scale * sum[0];
+                total[1] += variance(population, sum[0], sum[1], sum[2]);
+            }
+        }
+
+        /**
+         * Two-stage variance of a scaled sum: M^2 (1 - m/M) s^2 / m for the
+         * choice of the subdirectories, plus M/m times their own variances
+         */
+        private double variance(int population, double sum, double squares, double variances) {
+            double m = count;
+            double between = 0;
+            if (count > 1 && count < population) {
+                double s2 = Math.max(0, (squares - sum * sum / m) / (m - 1));
+                between = (double) population * population * (1 - m / population) * s2 / m;
+            }
+            return between + population / m * variances;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param walker the walker of the subtrees scanned completely
+     * @param stats the statistics receiving the estimate
+     * @param fullDepth the depth down to which every subdirectory is listed
+     * @param sampleDepth the depth down to which subdirectories are sampled
+     * @param sampleFraction the fraction of subdirectories sampled
+     * @param seed the seed of the random choices
+     */
+    DirectorySizeEstimator(TreeWalker walker, EstimatedDirectoryStatistics stats, int fullDepth, int sampleDepth,
+            double sampleFraction, long seed) {
+        this.walker = walker;
+        this.stats = stats;
+        this.fullDepth = fullDepth;
+        this.sampleDepth = sampleDepth;
+        this.sampleFraction = sampleFraction;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Setter for symlinkPolicy, the walker must have the same policy
+     * @param symlinkPolicy how symbolic links are treated
+     */
+    void setSymlinkPolicy(SymlinkPolicy symlinkPolicy) {
+        this.symlinkPolicy = symlinkPolicy;
+    }
+
+    /**
+     * Setter for filter
+     * @param filter the include and exclude patterns, or null
+     */
+    void setFilter(PathFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Setter for rootDevice, the walker must also stay on a single file system
+     * @param rootDevice the device of the estimated directory, or null to cross file systems
+     */
+    void setRootDevice(Object rootDevice) {
+        this.rootDevice = rootDevice;
+    }
+
+    /**
+     * Setter for throttle, the walker must have the same throttle
+     * @param throttle the limits of the estimation, or null
+     */
+    void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Estimates the tree under root into the statistics
+     * @param root the directory to estimate
+     * @return the statistics
+     */
+    EstimatedDirectoryStatistics estimate(File root) {
+        if (filter != null) {
+            filter = filter.bind(root.getPath());
+        }
+        visited = symlinkPolicy == SymlinkPolicy.SKIP ? null : new HashSet<>();
+        if (visited != null) {
+            Object key = TreeWalker.fileKey(root);
+            if (key != null) {
+                visited.add(key);
+            }
+        }
+        Estimate estimate = estimate(root, 0);
+        stats.addToTotalSize(Math.round(estimate.values[SIZE]));
+        stats.addToFileCount(Math.round(estimate.values[FILES]));
+        stats.addToDirectoryCount(Math.round(estimate.values[DIRECTORIES]));
+        stats.setVariances(estimate.variances[SIZE], estimate.variances[FILES], estimate.variances[DIRECTORIES]);
+        for (Map.Entry<String, double[]> e : estimate.extensions.entrySet()) {
+            stats.addExtensionSize(e.getKey(), Math.round(e.getValue()[0]));
+            stats.setExtensionVariance(e.getKey(), e.getValue()[1]);
+        }
+        stats.setScannedCounts(scannedFiles, scannedDirectories);
+        return stats;
+    }
+
+    /**
+     * Estimates one directory, listing it and sampling its subdirectories
+     * until sampleDepth, and scanning it completely below
+     * @param directory the directory
+     * @param depth its depth, 0 for the estimated directory
+     * @return the estimate of its subtree
+     */
+    private Estimate estimate(File directory, int depth) {
+        if (depth > sampleDepth) {
+            return scan(directory);
+        }
+        Estimate estimate = new Estimate();
+        estimate.values[DIRECTORIES] = 1;
+        scannedDirectories++;
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        List<File> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> stream = TreeWalker.openDirectory(directory)) {
+            for (Path entry : stream) {
+                File f = entry.toFile();
+                try {
+                    if (filter != null && filter.excludes(f.getPath(), f.getName())) {
+                        continue;
+                    }
+                    if (throttle != null) {
+                        throttle.acquireMetadataOps(1);
+                    }
+                    if (symlinkPolicy == SymlinkPolicy.SKIP && TreeWalker.isSymbolicLink(f)) {
+                        continue;
+                    }
+                    if (f.isFile()) {
+                        if (filter == null || filter.includes(f.getPath(), f.getName())) {
+                            addFile(estimate, f);
+                        }
+                        continue;
+                    }
+                    if (rootDevice != null) {
+                        Object device = TreeWalker.device(f);
+                        if (device != null && !device.equals(rootDevice)) {
+                            stats.addSkippedMountPoint(f.getAbsolutePath());
+                            continue;
+                        }
+                    }
+                    if (visited != null) {
+                        Object key = TreeWalker.fileKey(f);
+                        if (key != null && !visited.add(key)) {
+                            continue;
+                        }
+                    }
+                    subdirectories.add(f);
+                } catch (SecurityException e) {
+                    stats.addError(f.getAbsolutePath(), e);
+                }
+            }
+        } catch (IOException | InvalidPathException | DirectoryIteratorException e) {
+            // like listFiles returning null, only the entries read so far are estimated
+            if (TreeWalker.isListingFailure(directory, e)) {
+                stats.addError(directory.getAbsolutePath(), e);
+            }
+        }
+        int population = subdirectories.size();
+        int count = depth < fullDepth ? population : sampleSize(population);
+        // partial Fisher-Yates shuffle: the first count entries are a simple random sample
+        for (int i = 0; i < count && count < population; i++) {
+            int j = i + random.nextInt(population - i);
+            File swap = subdirectories.get(i);
+            subdirectories.set(i, subdirectories.get(j));
+            subdirectories.set(j, swap);
+        }
+        Sample sample = new Sample();
+        for (int i = 0; i < count; i++) {
+            File sub = subdirectories.get(i);
+            try {
+                sample.add(estimate(sub, depth + 1));
+            } catch (SecurityException e) {
+                stats.addError(sub.getAbsolutePath(), e);
+                sample.add(new Estimate());
+            }
+        }
+        sample.extrapolate(estimate, population);
+        return estimate;
+    }
+
+    /**
+     * Number of subdirectories to sample
+     * @param population the number of subdirectories
+     * @return the sample size, at least two so that the variance can be estimated
+     */
+    private int sampleSize(int population) {
+        int count = (int) Math.ceil(sampleFraction * population);
+        return Math.min(population, Math.max(2, count));
+    }
+
+    /**
+     * Scans a subtree completely with the walker, sharing the keys of the
+     * directories listed so that a directory reached through two links is
+     * only counted once
+     * @param directory the root of the subtree
+     * @return its exact values, with no variance
+     */
+    private Estimate scan(File directory) {
+        Estimate estimate = new Estimate();
+        walker.walk(directory, new TreeWalker.Visitor() {
+            @Override
+            public void visitFile(File file) {
+                addFile(estimate, file);
+            }
+
+            @Override
+            public boolean preVisitDirectory(File dir) {
+                estimate.values[DIRECTORIES]++;
+                scannedDirectories++;
+                return true;
+            }
+
+            @Override
+            public void visitFailed(File file, SecurityException e) {
+                stats.addError(file.getAbsolutePath(), e);
+            }
+
+            @Override
+            public void listFailed(File dir, Exception e) {
+                stats.addError(dir.getAbsolutePath(), e);
+            }
+
+            @Override
+            public void visitMountPoint(File dir) {
+                stats.addSkippedMountPoint(dir.getAbsolutePath());
+            }
+        }, filter, visited == null ? new HashSet<>() : visited);
+        return estimate;
+    }
+
+    /**
+     * Adds a file read by the estimation, the largest files are the ones read
+     */
+    private void addFile(Estimate estimate, File file) {
+        long size = file.length();
+        scannedFiles++;
+        estimate.addFile(DirectoryManipulation.getFileExtension(file.getName()), size);
+        if (stats.isLargeFileCandidate(size)) {
+            stats.updateLargestFile(size, file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork-join task that calculates the size of one directory.
+ * Every subdirectory is forked as its own task so idle workers of the
+ * pool can steal them, while the files of the directory are summed by
+ * the thread that owns the task.
+ * When symbolic links are followed, the file key of every directory is
+ * added to a concurrent set shared by the tasks and a directory already in
+ * the set is not walked again, which also cuts cycles. Tasks run in any
+ * order, so the ancestors of a directory are not known and both FOLLOW and
+ * FOLLOW_ONCE walk every directory at most once.
+ * Entries excluded by the PathFilter are skipped before their type is
+ * read, so excluded directories are never listed nor forked.
+ * When the device of the root is given, a directory on another device is
+ * recorded as a skipped mount point and not forked.
+ * An IoThrottle, when given, is shared by all the tasks and charged one
+ * metadata operation for every entry and every directory listed.
+ * ScanMetrics, when given, count the listings and the type reads of each
+ * task in the recorder of the thread that runs it, the type reads in one
+ * batch per directory. The current directory of the metrics is updated
+ * with the listings that are timed, about one in SAMPLE_INTERVAL.
+ */
+class DirectorySizeTask extends RecursiveTask<Long> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File directory;
+    private final DirectoryStatistics stats;
+    /** file keys of the directories walked, null when links are skipped */
+    private final Set<Object> visited;
+    /** block size of the file store, 0 when allocated sizes are not counted */
+    private final long blockSize;
+    /** filter bound to the scanned directory, null to count every entry */
+    private final PathFilter filter;
+    /** device of the scanned directory, null to cross file systems */
+    private final Object rootDevice;
+    /** limits the metadata operations of all the tasks, or null */
+    private final IoThrottle throttle;
+    /** counts the operations of all the tasks, or null */
+    private final ScanMetrics metrics;
+
+    /**
+     * Constructor
+     * @param directory the directory (or non regular file) to size
+     * @param stats the thread-safe statistics shared by all the tasks
+     * @param visited the concurrent set of the directories walked, whose
+     * key is already added for directory, or null to skip symbolic links
+     * @param blockSize the block size of the file store, 0 to count apparent sizes only
+     * @param filter the include and exclude patterns bound to the scanned directory, or null
+     * @param rootDevice the device of the scanned directory, or null to cross file systems
+     * @param throttle the limits shared by all the tasks, or null for no limit
+     * @param metrics the metrics shared by all the tasks, or null
+     */
+    DirectorySizeTask(File directory, DirectoryStatistics stats, Set<Object> visited, long blockSize, PathFilter filter,
+            Object rootDevice, IoThrottle throttle, ScanMetrics metrics) {
+        this.directory = directory;
+        this.stats = stats;
+        this.visited = visited;
+        this.blockSize = blockSize;
+        this.filter = filter;
+        this.rootDevice = rootDevice;
+        this.throttle = throttle;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sums the files of the directory and joins the subdirectory tasks
+     * @return Size of the directory and all its contents
+     */
+    @Override
+    protected Long compute() {
+        stats.incrementDirectoryCount();
+        long total = 0;
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        ScanMetrics.Recorder recorder = null;
+        long listStart = ScanMetrics.NOT_TIMED;
+        if (metrics != null) {
+            // a task runs on one thread, which may change at the next task
+            recorder = metrics.recorder();
+            listStart = recorder.start();
+            if (listStart != ScanMetrics.NOT_TIMED) {
+                metrics.enterDirectory(directory);
+            }
+        }
+        List<DirectorySizeTask> subtasks = new ArrayList<>();
+        // type reads, added to the recorder once the directory is read
+        long typeReads = 0;
+        // the entries are read one at a time, a huge directory is never held in memory
+        try (DirectoryStream<Path> stream = openDirectory(recorder, listStart)) {
+            for (Path entry : stream) {
+                File f = entry.toFile();
+                try {
+                    if (filter != null && filter.excludes(f.getPath(), f.getName())) {
+                        continue;
+                    }
+                    if (throttle != null) {
+                        throttle.acquireMetadataOps(1);
+                    }
+                    if (visited == null && TreeWalker.isSymbolicLink(f)) {
+                        continue;
+                    }
+                    typeReads++;
+                    if (f.isFile()) {
+                        if (filter == null || filter.includes(f.getPath(), f.getName())) {
+                            total += addFile(f);
+                        }
+                    } else {
+                        if (rootDevice != null) {
+                            Object device = TreeWalker.device(f);
+                            if (device != null && !device.equals(rootDevice)) {
+                                stats.addSkippedMountPoint(f.getAbsolutePath());
+                                continue;
+                            }
+                        }
+                        if (visited != null) {
+                            Object key = TreeWalker.fileKey(f);
+                            if (key != null && !visited.add(key)) {
+                                continue;
+                            }
+                        }
+                        DirectorySizeTask task = new DirectorySizeTask(f, stats, visited, blockSize, filter, rootDevice, throttle,
+                                metrics);
+                        task.fork();
+                        subtasks.add(task);
+                    }
+                } catch (SecurityException e) {
+                    stats.addError(f.getAbsolutePath(), e);
+                }
+            }
+        } catch (IOException | InvalidPathException | DirectoryIteratorException e) {
+            // like listFiles returning null, the directory is counted with the entries read so far
+            if (TreeWalker.isListingFailure(directory, e)) {
+                stats.addError(directory.getAbsolutePath(), e);
+            }
+        }
+        if (recorder != null) {
+            recorder.count(ScanOperation.STAT, typeReads);
+        }
+        // join in reverse order so the most recently forked tasks, which are
+        // the least likely to have been stolen, are run by this thread
+        for (int i = subtasks.size() - 1; i >= 0; i--) {
+            DirectorySizeTask task = subtasks.get(i);
+            try {
+                total += task.join();
+            } catch (SecurityException e) {
+                stats.addError(task.directory.getAbsolutePath(), e);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Opens the directory, counting a LIST in the recorder
+     * @param recorder the recorder of the thread, or null
+     * @param start the value returned by its start
+     * @return the open stream
+     * @throws IOException if the directory cannot be opened
+     */
+    private DirectoryStream<Path> openDirectory(ScanMetrics.Recorder recorder, long start) throws IOException {
+        if (recorder == null) {
+            return TreeWalker.openDirectory(directory);
+        }
+        try {
+            return TreeWalker.openDirectory(directory);
+        } finally {
+            recorder.record(ScanOperation.LIST, start);
+        }
+    }
+
+    /**
+     * Records a regular file in the statistics
+     * @param file the file to add
+     * @return the size of the file
+     */
+    private long addFile(File file) {
+        long size = file.length();
+        stats.addFileByPath(file.getPath(), size, DirectoryManipulation.allocatedSize(size, blockSize));
+        if (stats.isLargeFileCandidate(size)) {
+            stats.updateLargestFile(size, file.getAbsolutePath());
+        }
+        return size;
+    }
+}
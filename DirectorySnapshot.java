@@ -0,0 +1,294 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Snapshot file of the rolled-up sizes of the directories of a
+ * DirectoryTree, read back one directory at a time by a Reader.
+ * The directories are written depth first with the subdirectories of every
+ * directory sorted by name, which orders the paths as strings in which the
+ * separator sorts before every other character: the paths are strictly
+ * increasing and every subtree is a run of consecutive records, so two
+ * snapshots can be merged in one pass and a whole subtree skipped without
+ * reading its paths. A record holds the depth, the number of characters
+ * shared with the path of the previous record, the other characters, the
+ * size and the file count, all as varints, so the repeated prefixes of
+ * deep trees cost a few bytes.
+ */
+class DirectorySnapshot {
+
+    private static final int MAGIC = 0x44534E31; // "DSN1"
+
+    /** the order of the records, the separator before every other character */
+    static final Comparator<String> PATH_ORDER = (a, b) -> {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int c = compare(a.charAt(i), b.charAt(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    };
+
+    private DirectorySnapshot() {
+    }
+
+    /**
+     * Writes the snapshot of a tree to a temporary file which then replaces
+     * file, so an interrupted write leaves the previous snapshot intact
+     * @param tree the directory tree
+     * @param file the snapshot file
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalArgumentException if a root of the tree is inside another one
+     */
+    static void write(DirectoryTree tree, Path file) throws IOException {
+        int[] order = tree.sortedOrder(PATH_ORDER);
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeLong(System.currentTimeMillis());
+                out.writeLong(order.length);
+                StringBuilder path = new StringBuilder();
+                // length of the path of the current directory at every depth
+                int[] lengths = new int[16];
+                char[] previous = new char[256];
+                int previousLength = 0;
+                for (int directory : order) {
+                    int depth = tree.getDepth(directory);
+                    if (depth == 0) {
+                        path.setLength(0);
+                    } else {
+                        path.setLength(lengths[depth - 1]);
+                        if (path.length() == 0 || path.charAt(path.length() - 1) != File.separatorChar) {
+                            path.append(File.separatorChar);
+                        }
+                    }
+                    path.append(tree.getName(directory));
+                    if (depth == lengths.length) {
+                        lengths = Arrays.copyOf(lengths, depth * 2);
+                    }
+                    lengths[depth] = path.length();
+                    int length = path.length();
+                    int shared = 0;
+                    while (shared < previousLength && shared < length && previous[shared] == path.charAt(shared)) {
+                        shared++;
+                    }
+                    if (previousLength > 0 && (shared == length
+                            || shared < previousLength && compare(path.charAt(shared), previous[shared]) < 0)) {
+                        throw new IllegalArgumentException("Overlapping roots in the directory tree: " + path);
+                    }
+                    writeVarint(out, depth);
+                    writeVarint(out, shared);
+                    writeVarint(out, length - shared);
+                    if (length > previous.length) {
+                        previous = Arrays.copyOf(previous, Math.max(length, previous.length * 2));
+                    }
+                    for (int i = shared; i < length; i++) {
+                        char c = path.charAt(i);
+                        writeVarint(out, c);
+                        previous[i] = c;
+                    }
+                    previousLength = length;
+                    writeVarint(out, tree.getSize(directory));
+                    writeVarint(out, tree.getFileCount(directory));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Compares two characters of paths in the order of the snapshots
+     */
+    static int compare(char a, char b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == File.separatorChar) {
+            return -1;
+        }
+        if (b == File.separatorChar) {
+            return 1;
+        }
+        return Character.compare(a, b);
+    }
+
+    /**
+     * Writes a non-negative number 7 bits per byte, lowest bits first
+     */
+    private static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a number written by writeVarint
+     */
+    private static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    /**
+     * Reads a snapshot one record at a time. The path of the current record
+     * is decoded into a reused array, only path() builds a String, so the
+     * memory used depends on the length of the paths only.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long time;
+        private final long count;
+        private long read;
+        private char[] path = new char[256];
+        private int length;
+        /** number of characters of the path shared with the previous record */
+        private int shared;
+        private int depth;
+        private long size;
+        private long fileCount;
+
+        /**
+         * Constructor, reads the header
+         * @param file the snapshot file
+         * @throws IOException if the file cannot be read or is not a snapshot
+         */
+        Reader(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a directory snapshot: " + file);
+                }
+                time = in.readLong();
+                count = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next record
+         * @return false at the end of the snapshot
+         * @throws IOException if the snapshot is truncated, corrupt or not sorted
+         */
+        boolean next() throws IOException {
+            if (read == count) {
+                return false;
+            }
+            depth = (int) readVarint(in);
+            int prefix = (int) readVarint(in);
+            int suffix = (int) readVarint(in);
+            if (prefix < 0 || suffix < 0 || prefix > length || (read > 0 && prefix == length && suffix == 0)) {
+                throw new IOException("Corrupt directory snapshot");
+            }
+            char replaced = prefix < length ? path[prefix] : 0;
+            if (prefix + suffix > path.length) {
+                path = Arrays.copyOf(path, Math.max(prefix + suffix, path.length * 2));
+            }
+            for (int i = prefix; i < prefix + suffix; i++) {
+                path[i] = (char) readVarint(in);
+            }
+            if (read > 0 && prefix < length && (suffix == 0 || compare(path[prefix], replaced) <= 0)) {
+                throw new IOException("Directory snapshot not sorted");
+            }
+            length = prefix + suffix;
+            shared = prefix;
+            size = readVarint(in);
+            fileCount = readVarint(in);
+            read++;
+            return true;
+        }
+
+        /**
+         * Skips the subtree of the current record
+         * @return false at the end of the snapshot, else the reader is on
+         * the record following the subtree
+         * @throws IOException if the snapshot cannot be read
+         */
+        boolean skipSubtree() throws IOException {
+            int rootLength = length;
+            boolean separated = rootLength > 0 && path[rootLength - 1] == File.separatorChar;
+            // a record of the subtree shares the root path with the previous one
+            while (next()) {
+                if (shared < rootLength || !separated && path[rootLength] != File.separatorChar) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compares the paths of the current records of two readers
+         * @param other the other reader
+         * @return a negative number, 0 or a positive number as the path of
+         * this record comes before, is equal to or comes after the other
+         */
+        int compareTo(Reader other) {
+            int common = Math.min(length, other.length);
+            for (int i = 0; i < common; i++) {
+                int c = compare(path[i], other.path[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(length, other.length);
+        }
+
+        /**
+         * Getter for the path of the current record
+         * @return a new String of the path
+         */
+        String path() { return new String(path, 0, length); }
+        /**
+         * Getter for time
+         * @return when the snapshot was written, in milliseconds since the epoch
+         */
+        long time() { return time; }
+        /**
+         * Getter for depth
+         * @return the depth of the current record, 0 for a scanned directory
+         */
+        int depth() { return depth; }
+        /**
+         * Getter for size
+         * @return the rolled-up size of the current record
+         */
+        long size() { return size; }
+        /**
+         * Getter for fileCount
+         * @return the number of files in the subtree of the current record
+         */
+        long fileCount() { return fileCount; }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
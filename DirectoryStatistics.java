@@ -1,29 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+
 /**
      * Statistics class to track directory analysis results
      */
     public class DirectoryStatistics {
         private long totalSize;
+        private long totalAllocatedSize;
         private long fileCount;
         private long directoryCount;
+        private long duplicateInodeCount;
+        private long reusedDirectoryCount;
         private long largestFileSize;
         private String largestFileName;
-        private Pair[] extensionSizes;
-        private long extensionCount;
-        private String[] inaccessiblePaths;
-        private long inaccessibleCount;
+        private TopKFiles largestFiles;
+        private ExtensionTable extensionSizes;
+        private ScanErrors errors;
+        private DirectoryTree directoryTree;
+        private List<String> skippedMountPoints;
+        /** number of largest files kept by default */
+        static final int DEFAULT_TOP_FILE_COUNT = 10;
+
         /**
-         * Default constructor
+         * Default constructor, keeps the 10 largest files
          */
         public DirectoryStatistics() {
+            this(DEFAULT_TOP_FILE_COUNT);
+        }
+
+        /**
+         * Constructor
+         * @param topFileCount the number of largest files to keep
+         */
+        public DirectoryStatistics(int topFileCount) {
+            this(topFileCount, new ScanErrors());
+        }
+
+        /**
+         * Constructor of statistics that report their errors to a shared collector
+         * @param topFileCount the number of largest files to keep
+         * @param errors the collector of the errors
+         */
+        DirectoryStatistics(int topFileCount, ScanErrors errors) {
             totalSize = 0;
+            totalAllocatedSize = 0;
             fileCount = 0;
             directoryCount = 0;
+            duplicateInodeCount = 0;
+            reusedDirectoryCount = 0;
             largestFileSize = 0;
             largestFileName = "";
-            extensionSizes = new Pair[100];
-            extensionCount = 0;
-            inaccessiblePaths = new String[100];
-            inaccessibleCount = 0;
+            largestFiles = new TopKFiles(topFileCount);
+            extensionSizes = new ExtensionTable();
+            this.errors = errors;
+            skippedMountPoints = new ArrayList<>();
     }
 
         
@@ -32,6 +62,12 @@
          * @return the value of totalSize
          */
         public long getTotalSize() { return totalSize; }
+        /**
+         * Getter for totalAllocatedSize
+         * @return the size allocated on disk by the files, 0 unless the
+         * allocated size mode was enabled for the scan
+         */
+        public long getTotalAllocatedSize() { return totalAllocatedSize; }
         /**
          * Getter for fileCount
          * @return the value of fileCount
@@ -42,6 +78,19 @@
          * @return the value of directoryCount
          */
         public long getDirectoryCount() { return directoryCount; }
+        /**
+         * Getter for duplicateInodeCount
+         * @return the number of hard links and bind-mounted directories
+         * skipped because their inode was already counted
+         */
+        public long getDuplicateInodeCount() { return duplicateInodeCount; }
+        /**
+         * Getter for reusedDirectoryCount
+         * @return the number of directories whose files were taken from the
+         * index of a previous incremental scan instead of being read, 0 for
+         * the other scans
+         */
+        public long getReusedDirectoryCount() { return reusedDirectoryCount; }
         /**
          * Getter for largestFileSize
          * @return the value of largestFileSize
@@ -52,16 +101,63 @@
          * @return the value of largestFileName
          */
         public String getLargestFileName() { return largestFileName; }
+        /**
+         * Getter for largestFiles
+         * @return a new array of the largest non-empty files, largest first
+         */
+        public LargeFile[] getLargestFiles() { return largestFiles.toSortedArray(); }
+        /**
+         * Getter for the number of largest files kept
+         * @return the capacity of largestFiles
+         */
+        public int getTopFileCount() { return largestFiles.capacity(); }
         /**
          * Getter for extensionSizes
-         * @return the reference to the array extensionSizes
+         * @return a new array with one pair (extension, size) per extension
+         */
+        public Pair[] getExtensionSizes() { return extensionSizes.toPairs(); }
+        /**
+         * Ranks the extensions by size without changing the statistics
+         * @return a new array with one pair (extension, size) per extension, largest first
+         */
+        public Pair[] getRankedExtensions() {
+            return getRankedExtensions(Integer.MAX_VALUE);
+        }
+        /**
+         * Ranks the largest extensions by size without changing the statistics,
+         * only the selected extensions are sorted
+         * @param limit the maximum number of extensions returned
+         * @return a new array with at most limit pairs (extension, size), largest first
          */
-        public Pair[] getExtensionSizes() { return extensionSizes; }
+        public Pair[] getRankedExtensions(int limit) {
+            return ExtensionTable.rank(getExtensionSizes(), limit);
+        }
         /**
          * Getter for extensionCount
-         * @return the value of extensionCount
+         * @return the number of distinct extensions
+         */
+        public long getExtensionCount() { return extensionSizes.size(); }
+        /**
+         * Getter for directoryTree
+         * @return the rolled-up size of every directory scanned, or null
+         * unless the directory tree mode was enabled for a scan
+         */
+        public DirectoryTree getDirectoryTree() { return directoryTree; }
+        /**
+         * Getter for directoryTree, creating the tree on first use
+         * @return the reference to directoryTree
+         */
+        DirectoryTree getOrCreateDirectoryTree() {
+            if (directoryTree == null) {
+                directoryTree = new DirectoryTree();
+            }
+            return directoryTree;
+        }
+        /**
+         * Getter for errors
+         * @return the collector of the entries the scans could not read
          */
-        public long getExtensionCount() { return extensionCount; }
+        public ScanErrors getErrors() { return errors; }
 
         /**
          * Increment fileCount
@@ -75,6 +171,39 @@
         void incrementDirectoryCount() {
             directoryCount++;
         }
+        /**
+         * Increment duplicateInodeCount
+         */
+        void incrementDuplicateInodeCount() {
+            duplicateInodeCount++;
+        }
+        /**
+         * adds a given value to duplicateInodeCount
+         * @param count the value to add to duplicateInodeCount
+         */
+        void addToDuplicateInodeCount(long count) {
+            duplicateInodeCount += count;
+        }
+        /**
+         * Increment reusedDirectoryCount
+         */
+        void incrementReusedDirectoryCount() {
+            reusedDirectoryCount++;
+        }
+        /**
+         * adds a given value to fileCount
+         * @param count the value to add to fileCount
+         */
+        void addToFileCount(long count) {
+            fileCount += count;
+        }
+        /**
+         * adds a given value to directoryCount
+         * @param count the value to add to directoryCount
+         */
+        void addToDirectoryCount(long count) {
+            directoryCount += count;
+        }
         /**
          * adds a given value to totalSize
          * @param size the value to add to totalSize
@@ -82,9 +211,52 @@
         void addToTotalSize(long size) {
             totalSize += size;
         }
+        /**
+         * adds a given value to totalAllocatedSize
+         * @param size the value to add to totalAllocatedSize
+         */
+        void addToTotalAllocatedSize(long size) {
+            totalAllocatedSize += size;
+        }
+        /**
+         * adds a regular file to the counts, totals and extension sizes
+         * @param extension the extension of the file
+         * @param size the apparent size of the file
+         * @param allocatedSize the size allocated on disk by the file
+         */
+        void addFile(String extension, long size, long allocatedSize) {
+            incrementFileCount();
+            addToTotalSize(size);
+            addToTotalAllocatedSize(allocatedSize);
+            addExtensionSize(extension, size, allocatedSize);
+        }
+        /**
+         * adds a regular file like addFile, its extension is looked up in
+         * its path without being extracted, so a file of a known extension
+         * allocates nothing
+         * @param path the path or the name of the file
+         * @param size the apparent size of the file
+         * @param allocatedSize the size allocated on disk by the file
+         */
+        void addFileByPath(String path, long size, long allocatedSize) {
+            incrementFileCount();
+            addToTotalSize(size);
+            addToTotalAllocatedSize(allocatedSize);
+            addExtensionSizeByPath(path, size, allocatedSize);
+        }
+        /**
+         * tells if a file of the given size is one of the largest files,
+         * so that its name is only built when it is needed
+         * @param size the size of the given file
+         * @return true if updateLargestFile would keep the file
+         */
+        boolean isLargeFileCandidate(long size) {
+            return largestFiles.accepts(size);
+        }
         /**
          * update the name and size of the largest file if 
-         * the given size is greater that the current largest size
+         * the given size is greater that the current largest size,
+         * and keep the file if it is one of the largest files
          * @param size the size of the given file
          * @param fileName the name of the given file
          */
@@ -93,33 +265,94 @@
                 largestFileSize = size;
                 largestFileName = fileName;
             }
+            largestFiles.offer(size, fileName);
         }
         /**
-         * adds a pair (extension, size) to the array extensionSizes
-         * if no pair with the value extension is found
-         * if a pair is found, add size to the current size of the pair
+         * adds size to the total of extension in the table extensionSizes,
+         * the extension is inserted if it is not found
          * @param extension the name of the extension
          * @param size the given size
          */
         void addExtensionSize(String extension, long size) {
-             for (int i = 0; i < extensionCount; i++) {
-            if (extensionSizes[i].getType().equals(extension)) {
-                extensionSizes[i].setSize(extensionSizes[i].getSize() + size);
-                return;
-            }
+            addExtensionSize(extension, size, 0);
         }
-        if (extensionCount < extensionSizes.length) {
-            extensionSizes[(int) extensionCount++] = new Pair(extension, size);
+        /**
+         * adds size and allocatedSize to the totals of extension in the table
+         * extensionSizes, the extension is inserted if it is not found
+         * @param extension the name of the extension
+         * @param size the given size
+         * @param allocatedSize the given allocated size
+         */
+        void addExtensionSize(String extension, long size, long allocatedSize) {
+            extensionSizes.add(extension, size, allocatedSize);
         }
+
+        /**
+         * adds size and allocatedSize to the totals of the extension of a
+         * file, looked up in its path
+         * @param path the path or the name of the file
+         * @param size the given size
+         * @param allocatedSize the given allocated size
+         */
+        void addExtensionSizeByPath(String path, long size, long allocatedSize) {
+            extensionSizes.addByPath(path, size, allocatedSize);
         }
 
-        void addInaccessiblePath(String path) {
-            if (inaccessibleCount < inaccessiblePaths.length) {
-                inaccessiblePaths[(int) inaccessibleCount++] = path;
-            }
+        /**
+         * records an entry that could not be read
+         * @param path the path of the entry
+         * @param e the exception thrown while reading it
+         */
+        void addError(String path, Throwable e) {
+            errors.add(path, e);
         }
 
+        /**
+         * Getter for the number of errors
+         * @return the number of entries that could not be read, whatever the cause
+         */
         public long getInaccessibleCount() {
-            return inaccessibleCount;
+            return errors.getCount();
+        }
+
+        /**
+         * records a directory on another file system that was not walked
+         * @param path the path of the mount point
+         */
+        void addSkippedMountPoint(String path) {
+            skippedMountPoints.add(path);
+        }
+        /**
+         * Getter for skippedMountPoints
+         * @return a new array of the mount points skipped by the
+         * single file system mode, in the order they were found
+         */
+        public String[] getSkippedMountPoints() {
+            return skippedMountPoints.toArray(new String[0]);
+        }
+
+        /**
+         * adds all the values of other to this statistics,
+         * used to combine the partial results of a scan
+         * @param other the statistics to add
+         */
+        void merge(DirectoryStatistics other) {
+            addToTotalSize(other.getTotalSize());
+            addToTotalAllocatedSize(other.getTotalAllocatedSize());
+            addToFileCount(other.getFileCount());
+            addToDirectoryCount(other.getDirectoryCount());
+            addToDuplicateInodeCount(other.getDuplicateInodeCount());
+            for (LargeFile file : other.getLargestFiles()) {
+                updateLargestFile(file.getSize(), file.getPath());
+            }
+            for (Pair extension : other.getExtensionSizes()) {
+                addExtensionSize(extension.getType(), extension.getSize(), extension.getAllocatedSize());
+            }
+            if (other.getErrors() != errors) {
+                errors.merge(other.getErrors());
+            }
+            for (String mountPoint : other.getSkippedMountPoints()) {
+                addSkippedMountPoint(mountPoint);
+            }
         }
     }
\ No newline at end of file
@@ -0,0 +1,298 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Rolled-up size and file count of every directory of a scan.
+ * A directory is a node index into parallel arrays: the index of its
+ * parent, its depth, the index of its name in a pooled name table, and
+ * the size and number of files of its subtree. Names are interned in an
+ * open-addressing table so the names repeated across the tree ("src",
+ * "target", ".git"...) are stored once, and a directory costs about 28
+ * bytes, so millions of directories fit in a few tens of MB.
+ * Directories are added in pre-order, so a parent always has a smaller
+ * index than its children. While a directory is open the arrays hold the
+ * size of its own files; when it is closed its totals are final and are
+ * added to its parent.
+ * The scanned directory is a root of depth 0 named by its path; several
+ * scans into the same statistics add several roots.
+ */
+public class DirectoryTree {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_NAME_CAPACITY = 1024;
+
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] depths = new int[INITIAL_CAPACITY];
+    private int[] names = new int[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] fileCounts = new long[INITIAL_CAPACITY];
+    private int count;
+
+    /** distinct names, in insertion order */
+    private String[] namePool = new String[INITIAL_NAME_CAPACITY];
+    /** open-addressing table of name indices + 1, 0 marks a free slot */
+    private int[] nameSlots = new int[INITIAL_NAME_CAPACITY * 2];
+    private int nameCount;
+
+    /**
+     * adds a directory to the tree
+     * @param parent the index of the parent directory, -1 for a root
+     * @param name the name of the directory, or the path of a root
+     * @return the index of the new directory
+     */
+    int addDirectory(int parent, String name) {
+        if (count == parents.length) {
+            int capacity = count * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            names = Arrays.copyOf(names, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            fileCounts = Arrays.copyOf(fileCounts, capacity);
+        }
+        int index = count++;
+        parents[index] = parent;
+        depths[index] = parent < 0 ? 0 : depths[parent] + 1;
+        names[index] = intern(name);
+        sizes[index] = 0;
+        fileCounts[index] = 0;
+        return index;
+    }
+
+    /**
+     * adds a file to an open directory
+     * @param directory the index of the directory
+     * @param size the size of the file
+     */
+    void addFile(int directory, long size) {
+        sizes[directory] += size;
+        fileCounts[directory]++;
+    }
+
+    /**
+     * closes a directory once its whole subtree was added, adding its
+     * totals to its parent
+     * @param directory the index of the directory
+     * @return the index of its parent, -1 for a root
+     */
+    int close(int directory) {
+        int parent = parents[directory];
+        if (parent >= 0) {
+            sizes[parent] += sizes[directory];
+            fileCounts[parent] += fileCounts[directory];
+        }
+        return parent;
+    }
+
+    /**
+     * Getter for count
+     * @return the number of directories in the tree
+     */
+    public int size() { return count; }
+
+    /**
+     * Lists the directories down to a depth, like du -d
+     * @param maxDepth the maximum depth, 0 for the scanned directories only
+     * @return a new array of the directories of depth at most maxDepth, in
+     * the order of the walk, each directory before its subdirectories
+     * @throws IllegalArgumentException if maxDepth is negative
+     */
+    public DirectoryUsage[] getDirectories(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Invalid depth");
+        }
+        List<DirectoryUsage> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (depths[i] <= maxDepth) {
+                result.add(usage(i));
+            }
+        }
+        return result.toArray(new DirectoryUsage[0]);
+    }
+
+    /**
+     * Selects the heaviest directories with a bounded min-heap, only the
+     * paths of the selected directories are built
+     * @param limit the maximum number of directories returned
+     * @return a new array of at most limit directories, heaviest first
+     * @throws IllegalArgumentException if limit is negative
+     */
+    public DirectoryUsage[] getHeaviestDirectories(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit");
+        }
+        if (limit == 0) {
+            return new DirectoryUsage[0];
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, Math.max(count, 1)),
+                (a, b) -> sizes[a] != sizes[b] ? Long.compare(sizes[a], sizes[b]) : Integer.compare(b, a));
+        for (int i = 0; i < count; i++) {
+            if (heap.size() < limit) {
+                heap.add(i);
+            } else if (sizes[i] > sizes[heap.peek()]) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        DirectoryUsage[] result = new DirectoryUsage[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = usage(heap.poll());
+        }
+        return result;
+    }
+
+    /**
+     * Builds the path of a directory from the names of its ancestors
+     * @param directory the index of the directory
+     * @return the path of the directory
+     */
+    String getPath(int directory) {
+        int depth = depths[directory];
+        String[] parts = new String[depth + 1];
+        for (int i = directory, d = depth; i >= 0; i = parents[i], d--) {
+            parts[d] = namePool[names[i]];
+        }
+        StringBuilder path = new StringBuilder(parts[0]);
+        for (int d = 1; d < parts.length; d++) {
+            if (path.length() == 0 || path.charAt(path.length() - 1) != File.separatorChar) {
+                path.append(File.separatorChar);
+            }
+            path.append(parts[d]);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Getter for the name of a directory
+     * @param directory the index of the directory
+     * @return its name, or its path for a root
+     */
+    String getName(int directory) { return namePool[names[directory]]; }
+    /**
+     * Getter for the depth of a directory
+     * @param directory the index of the directory
+     * @return its depth, 0 for a root
+     */
+    int getDepth(int directory) { return depths[directory]; }
+    /**
+     * Getter for the size of a directory
+     * @param directory the index of the directory
+     * @return the total size of the files in its subtree
+     */
+    long getSize(int directory) { return sizes[directory]; }
+    /**
+     * Getter for the file count of a directory
+     * @param directory the index of the directory
+     * @return the number of files in its subtree
+     */
+    long getFileCount(int directory) { return fileCounts[directory]; }
+
+    /**
+     * Orders the directories depth first with the subdirectories of every
+     * directory, and the roots, sorted by name. The children are grouped by
+     * parent in one array and each group is sorted on a key packing the
+     * rank of the name and the index, so no path is built
+     * @param order the order of the names
+     * @return a new array of the indices of the directories, each directory
+     * before its subdirectories
+     */
+    int[] sortedOrder(Comparator<String> order) {
+        Integer[] byName = new Integer[nameCount];
+        for (int n = 0; n < nameCount; n++) {
+            byName[n] = n;
+        }
+        Arrays.sort(byName, (a, b) -> order.compare(namePool[a], namePool[b]));
+        int[] ranks = new int[nameCount];
+        for (int r = 0; r < nameCount; r++) {
+            ranks[byName[r]] = r;
+        }
+        // group parent + 1 holds the children of parent, group 0 the roots
+        int[] starts = new int[count + 2];
+        int maxDepth = 0;
+        for (int i = 0; i < count; i++) {
+            starts[parents[i] + 2]++;
+            maxDepth = Math.max(maxDepth, depths[i]);
+        }
+        for (int g = 1; g < starts.length; g++) {
+            starts[g] += starts[g - 1];
+        }
+        int[] next = Arrays.copyOf(starts, starts.length);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[next[parents[i] + 1]++] = (long) ranks[names[i]] << 32 | i;
+        }
+        for (int g = 0; g <= count; g++) {
+            Arrays.sort(keys, starts[g], starts[g + 1]);
+        }
+        int[] result = new int[count];
+        int n = 0;
+        int[] positions = new int[maxDepth + 2];
+        int[] ends = new int[maxDepth + 2];
+        int top = 0;
+        positions[0] = starts[0];
+        ends[0] = starts[1];
+        while (top >= 0) {
+            if (positions[top] == ends[top]) {
+                top--;
+                continue;
+            }
+            int directory = (int) keys[positions[top]++];
+            result[n++] = directory;
+            top++;
+            positions[top] = starts[directory + 1];
+            ends[top] = starts[directory + 2];
+        }
+        return result;
+    }
+
+    /**
+     * Builds the snapshot of one directory
+     */
+    private DirectoryUsage usage(int directory) {
+        return new DirectoryUsage(getPath(directory), sizes[directory], fileCounts[directory], depths[directory]);
+    }
+
+    /**
+     * Finds or adds a name in the pool
+     * @param name the name
+     * @return the index of the name in namePool
+     */
+    private int intern(String name) {
+        int mask = nameSlots.length - 1;
+        int i = name.hashCode() & mask;
+        while (nameSlots[i] != 0) {
+            if (namePool[nameSlots[i] - 1].equals(name)) {
+                return nameSlots[i] - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (nameCount == namePool.length) {
+            namePool = Arrays.copyOf(namePool, nameCount * 2);
+        }
+        namePool[nameCount] = name;
+        nameSlots[i] = ++nameCount;
+        if (nameCount * 2 > nameSlots.length) {
+            resizeNames();
+        }
+        return nameCount - 1;
+    }
+
+    /**
+     * Doubles the name table
+     */
+    private void resizeNames() {
+        int[] slots = new int[nameSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int n = 0; n < nameCount; n++) {
+            int i = namePool[n].hashCode() & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = n + 1;
+        }
+        nameSlots = slots;
+    }
+}
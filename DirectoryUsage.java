@@ -0,0 +1,44 @@
+/**
+ * Rolled-up size of one directory of a DirectoryTree
+ */
+public class DirectoryUsage {
+    private final String path;
+    private final long size;
+    private final long fileCount;
+    private final int depth;
+
+    /**
+     * Constructor
+     * @param path the path of the directory
+     * @param size the total size of the files in its subtree
+     * @param fileCount the number of files in its subtree
+     * @param depth the depth of the directory, 0 for the scanned directory
+     */
+    public DirectoryUsage(String path, long size, long fileCount, int depth) {
+        this.path = path;
+        this.size = size;
+        this.fileCount = fileCount;
+        this.depth = depth;
+    }
+
+    /**
+     * Getter for path
+     * @return the value of path
+     */
+    public String getPath() { return path; }
+    /**
+     * Getter for size
+     * @return the value of size
+     */
+    public long getSize() { return size; }
+    /**
+     * Getter for fileCount
+     * @return the value of fileCount
+     */
+    public long getFileCount() { return fileCount; }
+    /**
+     * Getter for depth
+     * @return the value of depth
+     */
+    public int getDepth() { return depth; }
+}
@@ -0,0 +1,465 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the statistics of a directory tree up to date from WatchService events.
+ * The tree is scanned once, every directory is registered with the watch
+ * service, and then each create, modify and delete event is applied to the
+ * statistics as a delta, so the statistics can be read at any time without
+ * walking the tree again. If the watch service overflows, the tree is
+ * scanned again and the new statistics replace the old ones.
+ * The tree is scanned and removed with an explicit stack, like TreeWalker,
+ * so its depth is not limited by the thread stack.
+ * The events are applied by a single daemon thread; the statistics are
+ * ConcurrentDirectoryStatistics so other threads can read them while they
+ * change. The largest files are the largest sizes seen since the last scan,
+ * they are not replaced when one of those files shrinks or is deleted. An
+ * extension is removed from the statistics once its last file is deleted.
+ * The watcher follows the symlink policy, the filter and the number of
+ * largest files of the DirectoryManipulation that created it. With SKIP,
+ * symbolic links are neither followed nor counted. With FOLLOW and
+ * FOLLOW_ONCE, links are followed and every directory is watched at most
+ * once, since a watch service returns the same key for a directory
+ * registered twice; a file reached through a link is counted with the
+ * size of its target, but only changes in the watched directories are
+ * reported. Excluded entries are neither counted nor watched, and only
+ * the included files are counted.
+ * With metrics, the listings and stats of the scans, the rescans and the
+ * events are counted in the recorder of the thread that makes them. The
+ * watcher does not start a run nor set the current directory, so metrics
+ * shared with a DirectoryManipulation keep the progress of its scans.
+ */
+public class DirectoryWatcher implements Runnable, AutoCloseable {
+
+    /** returned by reserveKey for a directory that is already watched */
+    private static final Object ALREADY_WATCHED = new Object();
+
+    private final Path root;
+    private final WatchService watchService;
+    private final SymlinkPolicy symlinkPolicy;
+    /** the filter bound to root, or null */
+    private final PathFilter filter;
+    private final int topFileCount;
+    /** the metrics counting the operations, or null */
+    private final ScanMetrics metrics;
+    /** recorder of the thread that adds directories, null without metrics */
+    private ScanMetrics.Recorder recorder;
+    private final Map<Path, WatchedDirectory> directories = new HashMap<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    /** file keys of the watched directories, only when links are followed */
+    private final Set<Object> directoryKeys = new HashSet<>();
+    /** number of counted files of every extension */
+    private final Map<String, Integer> extensionFiles = new HashMap<>();
+    /** statistics updated by the event thread */
+    private ConcurrentDirectoryStatistics stats;
+    /** statistics returned to readers, replaced only once a rescan is complete */
+    private volatile ConcurrentDirectoryStatistics published;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Entries of a watched directory, needed to compute the delta of an event
+     */
+    private static final class WatchedDirectory {
+        final Path path;
+        /** file key of the directory, null if links are not followed or it is not available */
+        final Object fileKey;
+        WatchKey key;
+        final Map<String, Long> files = new HashMap<>();
+        final Set<String> subdirectories = new HashSet<>();
+        /** entries that are neither regular files nor directories */
+        final Set<String> others = new HashSet<>();
+
+        WatchedDirectory(Path path, Object fileKey) {
+            this.path = path;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * Constructor, scans the tree and registers its directories
+     * @param root the directory to watch
+     * @param symlinkPolicy how symbolic links are treated
+     * @param filter the include and exclude patterns, or null to watch every entry
+     * @param topFileCount the number of largest files kept in the statistics
+     * @param metrics the metrics counting the operations, or null
+     * @throws IOException if the watch service cannot be created
+     */
+    DirectoryWatcher(Path root, SymlinkPolicy symlinkPolicy, PathFilter filter, int topFileCount,
+            ScanMetrics metrics) throws IOException {
+        this.root = root.toAbsolutePath();
+        this.watchService = root.getFileSystem().newWatchService();
+        this.symlinkPolicy = symlinkPolicy;
+        this.filter = filter == null ? null : filter.bind(this.root.toString());
+        this.topFileCount = topFileCount;
+        this.metrics = metrics;
+        this.stats = new ConcurrentDirectoryStatistics(topFileCount);
+        this.recorder = metrics == null ? null : metrics.recorder();
+        addDirectory(this.root, rootKey());
+        this.published = stats;
+    }
+
+    /**
+     * Getter for the live statistics
+     * @return the statistics of the tree, updated as events arrive
+     */
+    public DirectoryStatistics getStatistics() {
+        return published;
+    }
+
+    /**
+     * Starts applying the events on a daemon thread
+     */
+    void start() {
+        running = true;
+        thread = new Thread(this, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies the events until the watcher is closed
+     */
+    @Override
+    public void run() {
+        recorder = metrics == null ? null : metrics.recorder();
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan();
+                    break;
+                }
+                if (dir != null) {
+                    applyEvent(dir, ((Path) event.context()).toString(), event.kind());
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Stops the watcher and releases the watch service
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Applies one event on the entry name of the directory dir
+     */
+    private void applyEvent(Path dir, String name, WatchEvent.Kind<?> kind) {
+        WatchedDirectory watched = directories.get(dir);
+        if (watched == null) {
+            return;
+        }
+        if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            removeEntry(watched, name);
+            return;
+        }
+        Path child = dir.resolve(name);
+        if (isExcluded(child, name)) {
+            return;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = readAttributes(child);
+        } catch (NoSuchFileException e) {
+            if (!Files.isSymbolicLink(child)) {
+                removeEntry(watched, name);
+                return;
+            }
+            // a link to a missing target, counted like the scans do
+            attrs = null;
+        } catch (IOException e) {
+            return;
+        }
+        if (attrs != null && attrs.isSymbolicLink()) {
+            removeEntry(watched, name);
+        } else if (attrs != null && attrs.isRegularFile()) {
+            if (!watched.files.containsKey(name)) {
+                removeEntry(watched, name);
+                if (!isIncluded(child, name)) {
+                    return;
+                }
+            }
+            updateFile(watched, child, name, attrs.size());
+        } else if (attrs != null && attrs.isDirectory()) {
+            if (!watched.subdirectories.contains(name)) {
+                removeEntry(watched, name);
+                Object fileKey = reserveKey(attrs);
+                if (fileKey != ALREADY_WATCHED) {
+                    watched.subdirectories.add(name);
+                    addDirectory(child, fileKey);
+                }
+            }
+        } else if (!watched.others.contains(name)) {
+            removeEntry(watched, name);
+            watched.others.add(name);
+            stats.incrementDirectoryCount();
+        }
+    }
+
+    /**
+     * Records the new size of a file, adding the file if it is new
+     */
+    private void updateFile(WatchedDirectory watched, Path file, String name, long size) {
+        Long old = watched.files.put(name, size);
+        long delta = old == null ? size : size - old;
+        String extension = DirectoryManipulation.getFileExtension(name);
+        if (old == null) {
+            stats.incrementFileCount();
+            extensionFiles.merge(extension, 1, Integer::sum);
+        }
+        stats.addToTotalSize(delta);
+        stats.addExtensionSize(extension, delta);
+        if (stats.isLargeFileCandidate(size)) {
+            stats.updateLargestFile(size, file.toString());
+        }
+    }
+
+    /**
+     * Removes a counted file from the statistics, and its extension with
+     * its last file
+     */
+    private void removeFile(String name, long size) {
+        String extension = DirectoryManipulation.getFileExtension(name);
+        stats.addToFileCount(-1);
+        stats.addToTotalSize(-size);
+        stats.addExtensionSize(extension, -size);
+        if (extensionFiles.merge(extension, -1, Integer::sum) == 0) {
+            extensionFiles.remove(extension);
+            stats.removeExtension(extension);
+        }
+    }
+
+    /**
+     * Removes the entry name of a directory from the statistics, whatever its type
+     */
+    private void removeEntry(WatchedDirectory watched, String name) {
+        Long size = watched.files.remove(name);
+        if (size != null) {
+            removeFile(name, size);
+        } else if (watched.subdirectories.remove(name)) {
+            removeDirectory(watched.path.resolve(name));
+        } else if (watched.others.remove(name)) {
+            stats.addToDirectoryCount(-1);
+        }
+    }
+
+    /**
+     * Reserves the file key of a directory to watch when links are followed
+     * @param attrs the attributes of the directory
+     * @return the key, null if it is not kept, or ALREADY_WATCHED
+     */
+    private Object reserveKey(BasicFileAttributes attrs) {
+        if (symlinkPolicy == SymlinkPolicy.SKIP || attrs.fileKey() == null) {
+            return null;
+        }
+        return directoryKeys.add(attrs.fileKey()) ? attrs.fileKey() : ALREADY_WATCHED;
+    }
+
+    /**
+     * Reserves the file key of the root when links are followed
+     */
+    private Object rootKey() {
+        try {
+            Object fileKey = reserveKey(Files.readAttributes(root, BasicFileAttributes.class));
+            return fileKey == ALREADY_WATCHED ? null : fileKey;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers a directory and its subdirectories and adds their entries
+     * to the statistics, walking the subtree with an explicit stack
+     * @param dir the directory
+     * @param fileKey its reserved file key, or null
+     */
+    private void addDirectory(Path dir, Object fileKey) {
+        ArrayDeque<WatchedDirectory> pending = new ArrayDeque<>();
+        pending.push(new WatchedDirectory(dir, fileKey));
+        while (!pending.isEmpty()) {
+            WatchedDirectory watched = pending.pop();
+            try {
+                watched.key = watched.path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                stats.addError(watched.path.toString(), e);
+                if (watched.fileKey != null) {
+                    directoryKeys.remove(watched.fileKey);
+                }
+                continue;
+            }
+            directories.put(watched.path, watched);
+            keys.put(watched.key, watched.path);
+            stats.incrementDirectoryCount();
+            // registered before listing: an entry created meanwhile is either
+            // listed or reported by an event, and updateFile handles both
+            try (DirectoryStream<Path> stream = newDirectoryStream(watched.path)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    if (isExcluded(child, name)) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = readAttributes(child);
+                    } catch (IOException e) {
+                        watched.others.add(name);
+                        stats.incrementDirectoryCount();
+                        continue;
+                    }
+                    if (attrs.isSymbolicLink()) {
+                        continue;
+                    }
+                    if (attrs.isRegularFile()) {
+                        if (isIncluded(child, name)) {
+                            updateFile(watched, child, name, attrs.size());
+                        }
+                    } else if (attrs.isDirectory()) {
+                        Object childKey = reserveKey(attrs);
+                        if (childKey != ALREADY_WATCHED) {
+                            watched.subdirectories.add(name);
+                            pending.push(new WatchedDirectory(child, childKey));
+                        }
+                    } else {
+                        watched.others.add(name);
+                        stats.incrementDirectoryCount();
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                stats.addError(watched.path.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters a directory and its subdirectories and removes their
+     * entries from the statistics, walking the subtree with an explicit stack
+     */
+    private void removeDirectory(Path dir) {
+        ArrayDeque<Path> pending = new ArrayDeque<>();
+        pending.push(dir);
+        while (!pending.isEmpty()) {
+            Path path = pending.pop();
+            WatchedDirectory watched = directories.remove(path);
+            if (watched == null) {
+                continue;
+            }
+            watched.key.cancel();
+            keys.remove(watched.key);
+            if (watched.fileKey != null) {
+                directoryKeys.remove(watched.fileKey);
+            }
+            stats.addToDirectoryCount(-1 - watched.others.size());
+            for (Map.Entry<String, Long> file : watched.files.entrySet()) {
+                removeFile(file.getKey(), file.getValue());
+            }
+            for (String name : watched.subdirectories) {
+                pending.push(path.resolve(name));
+            }
+        }
+    }
+
+    /**
+     * Opens a directory, counting a LIST in the recorder
+     */
+    private DirectoryStream<Path> newDirectoryStream(Path dir) throws IOException {
+        if (recorder == null) {
+            return Files.newDirectoryStream(dir);
+        }
+        long start = recorder.start();
+        try {
+            return Files.newDirectoryStream(dir);
+        } finally {
+            recorder.record(ScanOperation.LIST, start);
+        }
+    }
+
+    /**
+     * Reads the attributes of an entry, following links unless they are
+     * skipped, counting a STAT in the recorder
+     */
+    private BasicFileAttributes readAttributes(Path child) throws IOException {
+        if (recorder == null) {
+            return readAttributesOf(child);
+        }
+        long start = recorder.start();
+        try {
+            return readAttributesOf(child);
+        } finally {
+            recorder.record(ScanOperation.STAT, start);
+        }
+    }
+
+    /**
+     * Reads the attributes of an entry, following links unless they are skipped
+     */
+    private BasicFileAttributes readAttributesOf(Path child) throws IOException {
+        if (symlinkPolicy == SymlinkPolicy.SKIP) {
+            return Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        return Files.readAttributes(child, BasicFileAttributes.class);
+    }
+
+    /**
+     * Tells if an entry matches an exclude pattern
+     */
+    private boolean isExcluded(Path child, String name) {
+        return filter != null && filter.excludes(child.toString(), name);
+    }
+
+    /**
+     * Tells if a file matches the include patterns
+     */
+    private boolean isIncluded(Path child, String name) {
+        return filter == null || filter.includes(child.toString(), name);
+    }
+
+    /**
+     * Scans the whole tree again after events were lost
+     */
+    private void rescan() {
+        for (WatchKey key : keys.keySet()) {
+            key.cancel();
+        }
+        keys.clear();
+        directories.clear();
+        directoryKeys.clear();
+        extensionFiles.clear();
+        stats = new ConcurrentDirectoryStatistics(topFileCount);
+        addDirectory(root, rootKey());
+        published = stats;
+    }
+}
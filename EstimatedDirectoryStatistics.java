@@ -0,0 +1,104 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics extrapolated from a sample of a directory tree.
+ * The totals, the counts and the extension sizes are estimates, each
+ * with the half-width of its 95% confidence interval: the exact value is
+ * within getTotalSize() ± getTotalSizeError() with a probability of about
+ * 95%. The largest files and the inaccessible paths are the ones of the
+ * directories actually scanned.
+ */
+public class EstimatedDirectoryStatistics extends DirectoryStatistics {
+
+    /** normal quantile of the 95% confidence intervals */
+    static final double Z_95 = 1.959964;
+
+    private double totalSizeError;
+    private double fileCountError;
+    private double directoryCountError;
+    private final Map<String, Double> extensionSizeErrors = new HashMap<>();
+    private long scannedFileCount;
+    private long scannedDirectoryCount;
+
+    /**
+     * Constructor
+     * @param topFileCount the number of largest files to keep
+     */
+    EstimatedDirectoryStatistics(int topFileCount) {
+        super(topFileCount);
+    }
+
+    /**
+     * Getter for the confidence level of the errors
+     * @return 0.95
+     */
+    public double getConfidenceLevel() { return 0.95; }
+    /**
+     * Getter for totalSizeError
+     * @return the half-width of the confidence interval of getTotalSize
+     */
+    public double getTotalSizeError() { return totalSizeError; }
+    /**
+     * Getter for fileCountError
+     * @return the half-width of the confidence interval of getFileCount
+     */
+    public double getFileCountError() { return fileCountError; }
+    /**
+     * Getter for directoryCountError
+     * @return the half-width of the confidence interval of getDirectoryCount
+     */
+    public double getDirectoryCountError() { return directoryCountError; }
+    /**
+     * Getter for the error of the size of an extension; the error of its
+     * share of the total is about this error divided by getTotalSize
+     * @param extension the name of the extension
+     * @return the half-width of the confidence interval of its size, 0 if
+     * the extension was not seen
+     */
+    public double getExtensionSizeError(String extension) {
+        Double error = extensionSizeErrors.get(extension);
+        return error == null ? 0 : error;
+    }
+    /**
+     * Getter for scannedFileCount
+     * @return the number of files actually read by the estimation
+     */
+    public long getScannedFileCount() { return scannedFileCount; }
+    /**
+     * Getter for scannedDirectoryCount
+     * @return the number of directories actually listed by the estimation
+     */
+    public long getScannedDirectoryCount() { return scannedDirectoryCount; }
+
+    /**
+     * Setter for the errors of the totals, from the estimated variances
+     * @param sizeVariance the variance of the total size
+     * @param fileCountVariance the variance of the file count
+     * @param directoryCountVariance the variance of the directory count
+     */
+    void setVariances(double sizeVariance, double fileCountVariance, double directoryCountVariance) {
+        totalSizeError = Z_95 * Math.sqrt(sizeVariance);
+        fileCountError = Z_95 * Math.sqrt(fileCountVariance);
+        directoryCountError = Z_95 * Math.sqrt(directoryCountVariance);
+    }
+
+    /**
+     * Setter for the error of an extension, from its estimated variance
+     * @param extension the name of the extension
+     * @param variance the variance of its size
+     */
+    void setExtensionVariance(String extension, double variance) {
+        extensionSizeErrors.put(extension, Z_95 * Math.sqrt(variance));
+    }
+
+    /**
+     * Setter for the numbers of entries actually scanned
+     * @param files the number of files read
+     * @param directories the number of directories listed
+     */
+    void setScannedCounts(long files, long directories) {
+        scannedFileCount = files;
+        scannedDirectoryCount = directories;
+    }
+}
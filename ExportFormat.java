@@ -0,0 +1,27 @@
+/**
+ * Formats of the per-file and per-directory records exported by a scan.
+ * Every record has a type (f for a file, d for a directory), the path as
+ * walked, the size (the rolled-up size of the files below a directory),
+ * the modification time in milliseconds since the epoch, the extension
+ * (empty for a directory or a file without one) and the depth below the
+ * scanned directory, which has depth 0.
+ */
+public enum ExportFormat {
+    /**
+     * RFC 4180 comma-separated values in UTF-8, with a header line
+     * type,path,size,mtime,extension,depth
+     */
+    CSV,
+    /**
+     * one JSON object per line in UTF-8, with the keys type, path, size,
+     * mtime, extension and depth
+     */
+    NDJSON,
+    /**
+     * the magic bytes "DMEX" and a version byte 1, then for every record:
+     * the type byte ('f' or 'd'), the depth, the size and the zigzag
+     * encoded mtime as unsigned LEB128 varints, the path and the extension
+     * as a varint length followed by their UTF-8 bytes
+     */
+    BINARY
+}
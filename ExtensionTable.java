@@ -0,0 +1,235 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Open-addressing hash table from a file extension to a total size.
+ * Keys are probed linearly in a String[] and the apparent and allocated
+ * sizes are kept in parallel long[], so adding to an existing extension
+ * allocates nothing.
+ * The table doubles when it is half full and has no limit on the number
+ * of extensions.
+ * The extension of a file can also be looked up in its path, hashing and
+ * comparing the characters in place, so that only the first file of an
+ * extension builds the extension string.
+ */
+class ExtensionTable {
+
+    /** key of the files whose name has no extension */
+    static final String NO_EXTENSION = "no extension";
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] keys;
+    private long[] sizes;
+    private long[] allocatedSizes;
+    private int count;
+
+    /**
+     * Default constructor
+     */
+    ExtensionTable() {
+        keys = new String[INITIAL_CAPACITY];
+        sizes = new long[INITIAL_CAPACITY];
+        allocatedSizes = new long[INITIAL_CAPACITY];
+        count = 0;
+    }
+
+    /**
+     * adds size to the total of extension, inserting the extension
+     * if it is not in the table yet
+     * @param extension the name of the extension
+     * @param size the size to add
+     * @param allocatedSize the allocated size to add
+     */
+    void add(String extension, long size, long allocatedSize) {
+        int i = slot(keys, extension);
+        if (keys[i] == null) {
+            keys[i] = extension;
+            count++;
+            sizes[i] = size;
+            allocatedSizes[i] = allocatedSize;
+            if (count * 2 > keys.length) {
+                resize();
+            }
+        } else {
+            sizes[i] += size;
+            allocatedSizes[i] += allocatedSize;
+        }
+    }
+
+    /**
+     * adds size to the total of the extension of a file, looked up in the
+     * path without building the extension unless it is new
+     * @param path the path or the name of the file
+     * @param size the size to add
+     * @param allocatedSize the allocated size to add
+     */
+    void addByPath(String path, long size, long allocatedSize) {
+        int start = extensionStart(path);
+        int i = slot(keys, path, start);
+        if (keys[i] == null) {
+            add(extension(path, start), size, allocatedSize);
+        } else {
+            sizes[i] += size;
+            allocatedSizes[i] += allocatedSize;
+        }
+    }
+
+    /**
+     * Getter for the total of an extension
+     * @param extension the name of the extension
+     * @return the total size of extension, 0 if it is not in the table
+     */
+    long get(String extension) {
+        int i = slot(keys, extension);
+        return keys[i] == null ? 0 : sizes[i];
+    }
+
+    /**
+     * Getter for count
+     * @return the number of distinct extensions
+     */
+    int size() { return count; }
+
+    /**
+     * Builds a snapshot of the table
+     * @return a new array with one pair (extension, size) per extension
+     */
+    Pair[] toPairs() {
+        Pair[] pairs = new Pair[count];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                pairs[n++] = new Pair(keys[i], sizes[i], allocatedSizes[i]);
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Sorts pairs by size, largest first, keeping only the first limit ones.
+     * When limit is smaller than the number of pairs, the largest pairs are
+     * selected with a min-heap of size limit and only those are sorted
+     * @param pairs the pairs to rank, not modified
+     * @param limit the maximum number of pairs returned
+     * @return a new array of at most limit pairs, largest first
+     */
+    static Pair[] rank(Pair[] pairs, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit");
+        }
+        if (limit >= pairs.length) {
+            Pair[] ranked = pairs.clone();
+            Arrays.sort(ranked, BY_SIZE_DESCENDING);
+            return ranked;
+        }
+        if (limit == 0) {
+            return new Pair[0];
+        }
+        PriorityQueue<Pair> heap = new PriorityQueue<>(limit + 1, BY_SIZE_DESCENDING.reversed());
+        for (Pair pair : pairs) {
+            heap.add(pair);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+        Pair[] ranked = new Pair[heap.size()];
+        for (int i = ranked.length - 1; i >= 0; i--) {
+            ranked[i] = heap.poll();
+        }
+        return ranked;
+    }
+
+    /** larger sizes first, equal sizes by extension name */
+    private static final Comparator<Pair> BY_SIZE_DESCENDING =
+            Comparator.comparingLong(Pair::getSize).reversed().thenComparing(Pair::getType);
+
+    /**
+     * finds the slot of extension, or the empty slot where it belongs
+     * @param table the key array to probe
+     * @param extension the name of the extension
+     * @return the index of the slot
+     */
+    private static int slot(String[] table, String extension) {
+        int mask = table.length - 1;
+        int h = extension.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        while (table[i] != null && !table[i].equals(extension)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * finds the slot of the extension of a file, or the empty slot where it
+     * belongs, without building the extension: the hash is the one of
+     * String.hashCode computed on the characters of the extension
+     * @param table the key array to probe
+     * @param path the path or the name of the file
+     * @param start the index of the extension in path, -1 if it has none
+     * @return the index of the slot
+     */
+    static int slot(String[] table, String path, int start) {
+        if (start < 0) {
+            return slot(table, NO_EXTENSION);
+        }
+        int length = path.length() - start;
+        int h = 0;
+        for (int c = start; c < path.length(); c++) {
+            h = 31 * h + path.charAt(c);
+        }
+        int mask = table.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (table[i] != null
+                && (table[i].length() != length || !table[i].regionMatches(0, path, start, length))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * finds where the extension of a file starts in its path
+     * @param path the path or the name of the file
+     * @return the index of the first character after the last dot of the
+     * name, -1 if the name has no dot or ends with it
+     */
+    static int extensionStart(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot == path.length() - 1 || dot < path.lastIndexOf(File.separatorChar)) {
+            return -1;
+        }
+        return dot + 1;
+    }
+
+    /**
+     * builds the extension of a file
+     * @param path the path or the name of the file
+     * @param start the index of the extension in path, -1 if it has none
+     * @return the extension, or NO_EXTENSION
+     */
+    static String extension(String path, int start) {
+        return start < 0 ? NO_EXTENSION : path.substring(start);
+    }
+
+    /**
+     * doubles the capacity of the table and re-inserts every extension
+     */
+    private void resize() {
+        String[] oldKeys = keys;
+        long[] oldSizes = sizes;
+        long[] oldAllocatedSizes = allocatedSizes;
+        keys = new String[oldKeys.length * 2];
+        sizes = new long[oldKeys.length * 2];
+        allocatedSizes = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int j = slot(keys, oldKeys[i]);
+                keys[j] = oldKeys[i];
+                sizes[j] = oldSizes[i];
+                allocatedSizes[j] = oldAllocatedSizes[i];
+            }
+        }
+    }
+}
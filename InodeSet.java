@@ -0,0 +1,94 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Set of inodes, identified by their device and inode numbers.
+ * Each device has its own open-addressing table of inode numbers stored in
+ * a long[], so an inode costs 8 bytes (about 11 bytes with the free slots of
+ * a table at most 3/4 full) and adding one allocates nothing until the table
+ * grows. 50 million inodes of one device fit in a table of 2^26 slots,
+ * 512 MB, but the table doubles from 256 MB to get there and both are live
+ * while the inodes are copied, so the peak is about 768 MB: a table of n
+ * slots needs 1.5 times its size while it grows.
+ */
+class InodeSet {
+
+    private final Map<Long, InodeTable> devices = new HashMap<>();
+    private long lastDevice;
+    private InodeTable lastTable;
+    private long size;
+
+    /**
+     * adds an inode to the set
+     * @param device the device number
+     * @param inode the inode number
+     * @return true if the inode was not in the set yet
+     */
+    boolean add(long device, long inode) {
+        if (lastTable == null || device != lastDevice) {
+            lastTable = devices.computeIfAbsent(device, d -> new InodeTable());
+            lastDevice = device;
+        }
+        if (lastTable.add(inode)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Getter for size
+     * @return the number of inodes in the set
+     */
+    long size() { return size; }
+
+    /**
+     * Linear probing set of the inode numbers of one device
+     */
+    private static final class InodeTable {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        /** 0 marks a free slot, inode 0 is kept apart */
+        private long[] slots = new long[INITIAL_CAPACITY];
+        private int count;
+        private boolean hasZero;
+
+        boolean add(long inode) {
+            if (inode == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            int i = slot(slots, inode);
+            if (slots[i] == inode) {
+                return false;
+            }
+            slots[i] = inode;
+            if (++count * 4L > slots.length * 3L) {
+                resize();
+            }
+            return true;
+        }
+
+        private static int slot(long[] table, long inode) {
+            int mask = table.length - 1;
+            // inode numbers are often sequential, mix them before masking
+            long h = inode * 0x9E3779B97F4A7C15L;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (table[i] != 0 && table[i] != inode) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void resize() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            for (long inode : old) {
+                if (inode != 0) {
+                    slots[slot(slots, inode)] = inode;
+                }
+            }
+        }
+    }
+}
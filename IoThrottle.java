@@ -0,0 +1,167 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the metadata operations per second (stat, list, open) and the
+ * content bytes per second of the scans that share it.
+ * Each limit is a token bucket that any thread can draw from: a caller
+ * reserves the time its tokens cost with a compare-and-set on the next
+ * free instant of the bucket and sleeps until its reservation starts, so
+ * the threads of a parallel scan share the rate without a lock. Unused
+ * time accumulates up to one second, which allows short bursts after an
+ * idle period.
+ * The limits can be changed while a scan is running: sleeping callers
+ * wake up at least every 50 ms, and a changed limit cancels the pending
+ * reservations, which are taken again at the new rate.
+ */
+public class IoThrottle {
+
+    /** longest idle time turned into burst tokens */
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** longest sleep before checking for a new limit */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final TokenBucket metadataOps = new TokenBucket();
+    private final TokenBucket bytes = new TokenBucket();
+
+    /**
+     * Constructor
+     * @param metadataOpsPerSecond the maximum metadata operations per second, 0 for no limit
+     * @param bytesPerSecond the maximum bytes read per second, 0 for no limit
+     * @throws IllegalArgumentException if a limit is negative
+     */
+    public IoThrottle(long metadataOpsPerSecond, long bytesPerSecond) {
+        setMetadataOpsPerSecond(metadataOpsPerSecond);
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Setter for the metadata limit, takes effect on the running scans
+     * @param metadataOpsPerSecond the maximum metadata operations per second, 0 for no limit
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public void setMetadataOpsPerSecond(long metadataOpsPerSecond) {
+        metadataOps.setRate(metadataOpsPerSecond);
+    }
+
+    /**
+     * Setter for the content limit, takes effect on the running scans
+     * @param bytesPerSecond the maximum bytes read per second, 0 for no limit
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        bytes.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Getter for the metadata limit
+     * @return the maximum metadata operations per second, 0 for no limit
+     */
+    public long getMetadataOpsPerSecond() { return metadataOps.rate(); }
+    /**
+     * Getter for the content limit
+     * @return the maximum bytes read per second, 0 for no limit
+     */
+    public long getBytesPerSecond() { return bytes.rate(); }
+
+    /**
+     * Waits until ops metadata operations are allowed
+     * @param ops the number of operations about to be made
+     */
+    void acquireMetadataOps(long ops) {
+        metadataOps.acquire(ops);
+    }
+
+    /**
+     * Waits until count bytes can be read
+     * @param count the number of bytes about to be read
+     */
+    void acquireBytes(long count) {
+        bytes.acquire(count);
+    }
+
+    /**
+     * Tells if the content is limited, in which case files should be read
+     * in small blocks rather than large ones
+     * @return true if there is a bytes per second limit
+     */
+    boolean limitsBytes() {
+        return bytes.rate() > 0;
+    }
+
+    /**
+     * One rate limit shared by all the threads
+     */
+    private static final class TokenBucket {
+        /**
+         * The rate, replaced by a new instance when it changes, which
+         * cancels the reservations charged at the old one: a reservation
+         * and its rate are always read together
+         */
+        private static final class Rate {
+            final long perSecond;
+
+            Rate(long perSecond) {
+                this.perSecond = perSecond;
+            }
+        }
+
+        final AtomicReference<Rate> current = new AtomicReference<>(new Rate(0));
+        /** instant at which the next reservation starts */
+        final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+        long rate() {
+            return current.get().perSecond;
+        }
+
+        void setRate(long rate) {
+            if (rate < 0) {
+                throw new IllegalArgumentException("Invalid limit");
+            }
+            // the time reserved at the old rate is forgiven
+            long now = System.nanoTime();
+            nextFree.accumulateAndGet(now, Math::min);
+            current.set(new Rate(rate));
+        }
+
+        void acquire(long permits) {
+            while (true) {
+                Rate reserved = current.get();
+                long rate = reserved.perSecond;
+                if (rate <= 0 || permits <= 0) {
+                    return;
+                }
+                long cost = permits >= Long.MAX_VALUE / 1_000_000_000L
+                        ? Long.MAX_VALUE / 4 : permits * 1_000_000_000L / rate;
+                long now = System.nanoTime();
+                long next = nextFree.get();
+                long start = next - (now - BURST_NANOS) < 0 ? now - BURST_NANOS : next;
+                if (!nextFree.compareAndSet(next, start + cost)) {
+                    continue;
+                }
+                if (awaitStart(start, reserved)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Sleeps until start
+         * @param reserved the rate the reservation was charged at
+         * @return false if the rate changed since it was read, even before
+         * the reservation was charged, and the reservation must be taken again
+         */
+        private boolean awaitStart(long start, Rate reserved) {
+            while (current.get() == reserved) {
+                long remaining = start - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    return true;
+                }
+                LockSupport.parkNanos(Math.min(remaining, MAX_PARK_NANOS));
+            }
+            return false;
+        }
+    }
+}
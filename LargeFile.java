@@ -0,0 +1,28 @@
+/**
+ * Path and size of one of the largest files of a scan
+ */
+public class LargeFile {
+    private final String path;
+    private final long size;
+
+    /**
+     * Constructor
+     * @param path the absolute path of the file
+     * @param size the size of the file
+     */
+    public LargeFile(String path, long size) {
+        this.path = path;
+        this.size = size;
+    }
+
+    /**
+     * Getter for path
+     * @return the value of path
+     */
+    public String getPath() { return path; }
+    /**
+     * Getter for size
+     * @return the value of size
+     */
+    public long getSize() { return size; }
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Directory size scanner built on Files.walkFileTree.
+ * The BasicFileAttributes of every entry are read once during the
+ * iteration of its directory and reused for the type and the size, where
+ * the java.io walk makes a separate call for each of them.
+ * Entries are classified like the java.io walk: regular files are counted
+ * as files and every other entry is counted as a directory.
+ * Symbolic links are handled by a SymlinkPolicy: with FOLLOW the walk cuts
+ * the cycles it detects, with FOLLOW_ONCE the file key of every directory
+ * is also recorded so that no directory is walked twice.
+ * When a block size is given, the size allocated on disk by every file is
+ * also counted, rounded up to whole blocks.
+ * When a DirectoryTree is given, every entry counted as a directory is
+ * added to it with the rolled-up size of its subtree.
+ * When a PathFilter is given, excluded entries are skipped. walkFileTree
+ * opens a directory before preVisitDirectory can prune it, so an excluded
+ * directory is still listed once; DirectoryManipulation uses the java.io
+ * walk instead when there are exclude patterns.
+ * When a RecordExporter is given, a record is written for every entry
+ * counted, with the modification time read with the other attributes.
+ * In single file system mode, directories on another device than the
+ * root are recorded as skipped mount points and not walked.
+ * An IoThrottle, when given, is charged one metadata operation for every
+ * entry and one more for every directory opened.
+ * ScanMetrics, when given, count a STAT for every entry and a LIST for
+ * every directory opened; walkFileTree makes these calls itself, so they
+ * are counted but not timed.
+ */
+class NioDirectoryScanner extends SimpleFileVisitor<Path> {
+
+    private final DirectoryStatistics stats;
+    private final SymlinkPolicy symlinkPolicy;
+    /** directories already walked, only with FOLLOW_ONCE */
+    private final Set<Object> visited;
+    /** block size of the file store, 0 when allocated sizes are not counted */
+    private final long blockSize;
+    /** rolled-up sizes of the directories, null when they are not kept */
+    private final DirectoryTree tree;
+    /** index in tree of the directory being walked */
+    private int current = -1;
+    /** the include and exclude patterns, or null */
+    private final PathFilter filter;
+    /** filter bound to the root of the current scan, or null */
+    private PathFilter boundFilter;
+    private final boolean singleFileSystem;
+    /** limits the metadata operations, or null */
+    private final IoThrottle throttle;
+    /** writer of the records, or null */
+    private final RecordExporter exporter;
+    /** counts the operations of the walk, or null */
+    private final ScanMetrics metrics;
+    /** recorder of the thread of the current scan, null without metrics */
+    private ScanMetrics.Recorder recorder;
+    /** device of the root of the current scan, null to cross file systems */
+    private Object rootDevice;
+    private Path root;
+    private long total;
+
+    /**
+     * Constructor
+     * @param stats the statistics to update
+     * @param symlinkPolicy how symbolic links are treated
+     * @param blockSize the block size of the file store, 0 to count apparent sizes only
+     * @param tree the tree receiving the rolled-up size of every directory, or null
+     * @param filter the include and exclude patterns, or null to count every entry
+     * @param singleFileSystem true to stop at mount points
+     * @param throttle the limits of the scan, or null for no limit
+     * @param exporter the writer of the records of the entries, or null
+     * @param metrics the metrics of the scan, or null
+     */
+    NioDirectoryScanner(DirectoryStatistics stats, SymlinkPolicy symlinkPolicy, long blockSize, DirectoryTree tree,
+            PathFilter filter, boolean singleFileSystem, IoThrottle throttle, RecordExporter exporter, ScanMetrics metrics) {
+        this.stats = stats;
+        this.symlinkPolicy = symlinkPolicy;
+        this.visited = symlinkPolicy == SymlinkPolicy.FOLLOW_ONCE ? new HashSet<>() : null;
+        this.blockSize = blockSize;
+        this.tree = tree;
+        this.filter = filter;
+        this.singleFileSystem = singleFileSystem;
+        this.throttle = throttle;
+        this.exporter = exporter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Walks the tree under root and updates the statistics
+     * @param root the directory to scan
+     * @return Total size in bytes of the files under root
+     */
+    long scan(Path root) {
+        total = 0;
+        this.root = root;
+        boundFilter = filter == null ? null : filter.bind(root.toString());
+        rootDevice = singleFileSystem ? TreeWalker.device(root) : null;
+        recorder = metrics == null ? null : metrics.recorder();
+        try {
+            EnumSet<FileVisitOption> options = symlinkPolicy == SymlinkPolicy.SKIP
+                    ? EnumSet.noneOf(FileVisitOption.class) : EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+            Files.walkFileTree(root, options, Integer.MAX_VALUE, this);
+        } catch (IOException e) {
+            // visitFileFailed never rethrows, so the walk does not fail
+        }
+        return total;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (recorder != null) {
+            // walkFileTree read the attributes and opened the directory
+            recorder.count(ScanOperation.STAT, 1);
+            recorder.count(ScanOperation.LIST, 1);
+        }
+        if (isExcluded(dir)) {
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        if (throttle != null) {
+            // the attributes read and the directory opened by walkFileTree
+            throttle.acquireMetadataOps(2);
+        }
+        if (rootDevice != null && !dir.equals(root)) {
+            Object device = TreeWalker.device(dir);
+            if (device != null && !device.equals(rootDevice)) {
+                stats.addSkippedMountPoint(dir.toAbsolutePath().toString());
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+        }
+        if (visited != null && attrs.fileKey() != null && !visited.add(attrs.fileKey())) {
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        stats.incrementDirectoryCount();
+        openDirectory(dir);
+        if (metrics != null) {
+            metrics.enterDirectory(dir);
+        }
+        if (exporter != null) {
+            exporter.enterDirectory(attrs.lastModifiedTime().toMillis());
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (recorder != null) {
+            recorder.count(ScanOperation.STAT, 1);
+        }
+        if (attrs.isSymbolicLink() && symlinkPolicy == SymlinkPolicy.SKIP) {
+            return FileVisitResult.CONTINUE;
+        }
+        if (isExcluded(file)) {
+            return FileVisitResult.CONTINUE;
+        }
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        if (!attrs.isRegularFile()) {
+            stats.incrementDirectoryCount();
+            openDirectory(file);
+            closeDirectory();
+            if (exporter != null) {
+                exporter.enterDirectory(attrs.lastModifiedTime().toMillis());
+                exporter.exitDirectory(file.toString());
+            }
+            return FileVisitResult.CONTINUE;
+        }
+        if (boundFilter != null && !boundFilter.includes(file.toString(), file.getFileName().toString())) {
+            return FileVisitResult.CONTINUE;
+        }
+        long size = attrs.size();
+        total += size;
+        if (tree != null) {
+            tree.addFile(current, size);
+        }
+        if (exporter != null) {
+            exporter.file(file.toString(), size, attrs.lastModifiedTime().toMillis());
+        }
+        stats.addFileByPath(file.toString(), size, DirectoryManipulation.allocatedSize(size, blockSize));
+        if (stats.isLargeFileCandidate(size)) {
+            stats.updateLargestFile(size, file.toAbsolutePath().toString());
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * An entry that cannot be read is counted as a directory with no
+     * content, like a directory whose listFiles returns null, and its error
+     * is collected. A link back to a directory being walked is not counted
+     */
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        if (recorder != null) {
+            recorder.count(ScanOperation.STAT, 1);
+        }
+        if (exc instanceof FileSystemLoopException || isExcluded(file)) {
+            return FileVisitResult.CONTINUE;
+        }
+        stats.addError(file.toAbsolutePath().toString(), exc);
+        stats.incrementDirectoryCount();
+        openDirectory(file);
+        closeDirectory();
+        if (exporter != null) {
+            // the attributes could not be read, the time is unknown
+            exporter.enterDirectory(0);
+            exporter.exitDirectory(file.toString());
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * exc is the error that stopped the listing of dir, its entries read
+     * before it are counted
+     */
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+        if (exc != null) {
+            stats.addError(dir.toAbsolutePath().toString(), exc);
+        }
+        closeDirectory();
+        if (exporter != null) {
+            exporter.exitDirectory(dir.toString());
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Tells if an entry below the root matches an exclude pattern
+     */
+    private boolean isExcluded(Path path) {
+        if (boundFilter == null || path.equals(root)) {
+            return false;
+        }
+        Path name = path.getFileName();
+        return boundFilter.excludes(path.toString(), name == null ? "" : name.toString());
+    }
+
+    /**
+     * Adds a directory to the tree as a child of the current directory
+     */
+    private void openDirectory(Path dir) {
+        if (tree != null) {
+            Path name = dir.getFileName();
+            current = tree.addDirectory(current, current < 0 || name == null
+                    ? dir.toAbsolutePath().toString() : name.toString());
+        }
+    }
+
+    /**
+     * Closes the current directory of the tree
+     */
+    private void closeDirectory() {
+        if (tree != null) {
+            current = tree.close(current);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Count and latency distribution of one ScanOperation, read from the
+ * histogram of the sampled operations. The percentiles are the midpoints
+ * of their histogram buckets, within about 12% of the exact value.
+ */
+public class OperationLatency {
+    private final String operation;
+    private final long count;
+    private final long sampleCount;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    /**
+     * Constructor
+     * @param operation the name of the operation
+     * @param count the number of operations made
+     * @param sampleCount the number of operations timed
+     * @param meanNanos the mean latency of the timed operations
+     * @param p50Nanos the median latency
+     * @param p90Nanos the 90th percentile of the latency
+     * @param p99Nanos the 99th percentile of the latency
+     * @param maxNanos the longest latency timed
+     */
+    public OperationLatency(String operation, long count, long sampleCount, long meanNanos, long p50Nanos, long p90Nanos,
+            long p99Nanos, long maxNanos) {
+        this.operation = operation;
+        this.count = count;
+        this.sampleCount = sampleCount;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Getter for operation
+     * @return the value of operation
+     */
+    public String getOperation() { return operation; }
+    /**
+     * Getter for count
+     * @return the value of count
+     */
+    public long getCount() { return count; }
+    /**
+     * Getter for sampleCount
+     * @return the value of sampleCount
+     */
+    public long getSampleCount() { return sampleCount; }
+    /**
+     * Getter for meanNanos
+     * @return the value of meanNanos
+     */
+    public long getMeanNanos() { return meanNanos; }
+    /**
+     * Getter for p50Nanos
+     * @return the value of p50Nanos
+     */
+    public long getP50Nanos() { return p50Nanos; }
+    /**
+     * Getter for p90Nanos
+     * @return the value of p90Nanos
+     */
+    public long getP90Nanos() { return p90Nanos; }
+    /**
+     * Getter for p99Nanos
+     * @return the value of p99Nanos
+     */
+    public long getP99Nanos() { return p99Nanos; }
+    /**
+     * Getter for maxNanos
+     * @return the value of maxNanos
+     */
+    public long getMaxNanos() { return maxNanos; }
+}
@@ -0,0 +1,56 @@
+/**
+ * Pair of a file extension and the total size of the files with that extension,
+ * with the total size they allocate on disk next to it
+ */
+public class Pair {
+    private String type;
+    private long size;
+    private long allocatedSize;
+
+    /**
+     * Constructor
+     * @param type the name of the extension
+     * @param size the total size of the extension
+     */
+    public Pair(String type, long size) {
+        this(type, size, 0);
+    }
+
+    /**
+     * Constructor
+     * @param type the name of the extension
+     * @param size the total size of the extension
+     * @param allocatedSize the total size allocated on disk by the extension
+     */
+    public Pair(String type, long size, long allocatedSize) {
+        this.type = type;
+        this.size = size;
+        this.allocatedSize = allocatedSize;
+    }
+
+    /**
+     * Getter for type
+     * @return the value of type
+     */
+    public String getType() { return type; }
+    /**
+     * Getter for size
+     * @return the value of size
+     */
+    public long getSize() { return size; }
+    /**
+     * Setter for size
+     * @param size the new value of size
+     */
+    public void setSize(long size) { this.size = size; }
+    /**
+     * Getter for allocatedSize
+     * @return the value of allocatedSize
+     */
+    public long getAllocatedSize() { return allocatedSize; }
+    /**
+     * Setter for allocatedSize
+     * @param allocatedSize the new value of allocatedSize
+     */
+    public void setAllocatedSize(long allocatedSize) { this.allocatedSize = allocatedSize; }
+}
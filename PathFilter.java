@@ -0,0 +1,277 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude glob patterns compiled once for a walk.
+ * A pattern without a '/' is matched against the name of an entry, a
+ * pattern with a '/' against its path relative to the scanned directory,
+ * with '/' as the separator. Patterns support *, **, ?, [...] and {a,b}.
+ * In a [...] set, a leading '!' negates it, a ']' right after the '[' or
+ * the '!' is a member, '-' makes a range and every other character is
+ * itself: "[a&&b]" is the set of 'a', '&' and 'b'.
+ * Each pattern is compiled to the cheapest test that implements it: a
+ * plain name ("node_modules") is looked up in a hash set, a star followed
+ * by a plain suffix ("*.tmp") is an endsWith test, and only the other
+ * patterns are compiled, together, to one regular expression.
+ * An excluded entry is skipped whatever its type, and an excluded
+ * directory is pruned before it is listed. When there are include
+ * patterns, only the files that match one of them are visited; the
+ * directories are always walked, since their files may match.
+ * The scanned directory itself is never filtered.
+ */
+public class PathFilter {
+
+    private final Patterns includes;
+    private final Patterns excludes;
+    /** length of the path of the scanned directory and its separator, -1 if not bound */
+    private final int rootLength;
+
+    /**
+     * Constructor
+     * @param includes the patterns the files must match, null or empty to visit all of them
+     * @param excludes the patterns of the entries to skip, null or empty to skip none
+     * @throws IllegalArgumentException if a pattern is empty or invalid
+     */
+    public PathFilter(String[] includes, String[] excludes) {
+        this.includes = includes == null || includes.length == 0 ? null : new Patterns(includes);
+        this.excludes = excludes == null || excludes.length == 0 ? null : new Patterns(excludes);
+        this.rootLength = -1;
+    }
+
+    /**
+     * Constructor of a filter bound to a scanned directory
+     */
+    private PathFilter(PathFilter filter, int rootLength) {
+        this.includes = filter.includes;
+        this.excludes = filter.excludes;
+        this.rootLength = rootLength;
+    }
+
+    /**
+     * Binds the filter to the directory a scan starts from, the compiled
+     * patterns are shared
+     * @param root the path of the scanned directory, the paths of the
+     * entries of the walk start with it
+     * @return a filter whose relative paths start after root, or this
+     * filter if it is already bound to the directory a scan started from
+     */
+    PathFilter bind(String root) {
+        if (rootLength >= 0) {
+            return this;
+        }
+        boolean separator = root.endsWith(File.separator);
+        return new PathFilter(this, root.length() + (separator ? 0 : 1));
+    }
+
+    /**
+     * Tells if the filter has exclude patterns
+     * @return true if some entries may be excluded
+     */
+    boolean hasExcludes() {
+        return excludes != null;
+    }
+
+    /**
+     * Tells if an entry is excluded, it must not be visited nor listed
+     * @param path the path of the entry, starting with the bound root
+     * @param name the name of the entry
+     * @return true if the entry matches an exclude pattern
+     */
+    boolean excludes(String path, String name) {
+        return excludes != null && excludes.matches(this, path, name);
+    }
+
+    /**
+     * Tells if a file is included
+     * @param path the path of the file, starting with the bound root
+     * @param name the name of the file
+     * @return true if there are no include patterns or the file matches one
+     */
+    boolean includes(String path, String name) {
+        return includes == null || includes.matches(this, path, name);
+    }
+
+    /**
+     * Builds the path of an entry relative to the bound root
+     */
+    private String relativePath(String path) {
+        if (rootLength < 0) {
+            throw new IllegalStateException("Filter not bound to a directory");
+        }
+        String relative = rootLength >= path.length() ? "" : path.substring(rootLength);
+        return File.separatorChar == '/' ? relative : relative.replace(File.separatorChar, '/');
+    }
+
+    /**
+     * One set of patterns, split by the test that implements them
+     */
+    private static final class Patterns {
+        final Set<String> names = new HashSet<>();
+        final String[] suffixes;
+        /** patterns on the name that need a regular expression, or null */
+        final Pattern namePattern;
+        /** patterns on the relative path, or null */
+        final Pattern pathPattern;
+
+        Patterns(String[] globs) {
+            List<String> suffixList = new ArrayList<>();
+            List<String> nameRegexes = new ArrayList<>();
+            List<String> pathRegexes = new ArrayList<>();
+            for (String glob : globs) {
+                if (glob == null) {
+                    throw new IllegalArgumentException("Invalid pattern");
+                }
+                String g = glob;
+                while (g.startsWith("/")) {
+                    g = g.substring(1);
+                }
+                while (g.endsWith("/")) {
+                    g = g.substring(0, g.length() - 1);
+                }
+                if (g.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid pattern: " + glob);
+                }
+                if (g.indexOf('/') >= 0) {
+                    pathRegexes.add(globToRegex(g));
+                } else if (isLiteral(g)) {
+                    names.add(g);
+                } else if (g.charAt(0) == '*' && isLiteral(g.substring(1))) {
+                    suffixList.add(g.substring(1));
+                } else {
+                    nameRegexes.add(globToRegex(g));
+                }
+            }
+            suffixes = suffixList.toArray(new String[0]);
+            namePattern = compile(nameRegexes);
+            pathPattern = compile(pathRegexes);
+        }
+
+        boolean matches(PathFilter filter, String path, String name) {
+            if (names.contains(name)) {
+                return true;
+            }
+            for (String suffix : suffixes) {
+                if (name.endsWith(suffix)) {
+                    return true;
+                }
+            }
+            if (namePattern != null && namePattern.matcher(name).matches()) {
+                return true;
+            }
+            return pathPattern != null && pathPattern.matcher(filter.relativePath(path)).matches();
+        }
+
+        private static Pattern compile(List<String> regexes) {
+            if (regexes.isEmpty()) {
+                return null;
+            }
+            return Pattern.compile("(?:" + String.join(")|(?:", regexes) + ")");
+        }
+    }
+
+    /**
+     * Tells if a glob has no special character
+     */
+    private static boolean isLiteral(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            if ("*?[]{}\\".indexOf(glob.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Translates a glob to a regular expression: ** matches across
+     * directories, * and ? do not match '/'
+     * @param glob the pattern
+     * @return the regular expression
+     * @throws IllegalArgumentException if a bracket or a brace is not closed
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // "**/" also matches no directory at all
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[': {
+                    int start = i + 1;
+                    boolean negated = start < glob.length() && glob.charAt(start) == '!';
+                    if (negated) {
+                        start++;
+                    }
+                    // a ']' right after the '[' or the '!' is a member of the set
+                    int end = glob.indexOf(']', start + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed [ in pattern: " + glob);
+                    }
+                    regex.append(negated ? "[^" : "[");
+                    for (int j = start; j < end; j++) {
+                        char member = glob.charAt(j);
+                        // the characters that mean something in a Java class but not in a glob set
+                        if ("\\[]&^".indexOf(member) >= 0) {
+                            regex.append('\\');
+                        }
+                        regex.append(member);
+                    }
+                    regex.append(']');
+                    i = end;
+                    break;
+                }
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Nested { in pattern: " + glob);
+                    }
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (!inGroup) {
+                        throw new IllegalArgumentException("Unopened } in pattern: " + glob);
+                    }
+                    inGroup = false;
+                    regex.append(')');
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                case '\\':
+                    if (++i == glob.length()) {
+                        throw new IllegalArgumentException("Trailing \\ in pattern: " + glob);
+                    }
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    break;
+                default:
+                    if ("().+^$|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Unclosed { in pattern: " + glob);
+        }
+        return regex.toString();
+    }
+}
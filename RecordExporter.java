@@ -0,0 +1,348 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes one record per file and per directory of a walk, as the walk
+ * happens, to a file in an ExportFormat.
+ * The records are encoded straight into a direct buffer that is written
+ * to a FileChannel whenever it is full: characters are encoded to UTF-8,
+ * numbers to digits or varints and strings are escaped in place, so a
+ * record allocates nothing and the memory used does not depend on the
+ * number of entries exported. A directory is entered before its entries
+ * and written after them, with the size of all the files below it, so
+ * the directories come in post-order, each after its contents. The
+ * rolled-up sizes of the open directories are kept on a stack that grows
+ * with the depth of the tree only.
+ * This class is not thread-safe, each exporter serves one walk.
+ */
+class RecordExporter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int INITIAL_DEPTH = 64;
+    private static final byte[] MAGIC = {'D', 'M', 'E', 'X', 1};
+    private static final byte[] CSV_HEADER = "type,path,size,mtime,extension,depth\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel channel;
+    private final ExportFormat format;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** rolled-up sizes of the open directories, by depth */
+    private long[] sizes = new long[INITIAL_DEPTH];
+    /** modification times of the open directories, by depth */
+    private long[] mtimes = new long[INITIAL_DEPTH];
+    /** number of open directories */
+    private int open;
+
+    /**
+     * Constructor, creates or truncates the file and writes the header of the format
+     * @param file the file to write
+     * @param format the format of the records
+     * @throws IOException if the file cannot be opened
+     */
+    RecordExporter(Path file, ExportFormat format) throws IOException {
+        this.format = format;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (format == ExportFormat.CSV) {
+            buffer.put(CSV_HEADER);
+        } else if (format == ExportFormat.BINARY) {
+            buffer.put(MAGIC);
+        }
+    }
+
+    /**
+     * Writes the record of a file of the directory entered last
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param mtime the modification time of the file
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    void file(String path, long size, long mtime) {
+        if (open > 0) {
+            sizes[open - 1] += size;
+        }
+        write('f', path, ExtensionTable.extensionStart(path), size, mtime, open);
+    }
+
+    /**
+     * Enters a directory, its record is written by exitDirectory
+     * @param mtime the modification time of the directory
+     */
+    void enterDirectory(long mtime) {
+        if (open == sizes.length) {
+            sizes = Arrays.copyOf(sizes, open * 2);
+            mtimes = Arrays.copyOf(mtimes, open * 2);
+        }
+        sizes[open] = 0;
+        mtimes[open] = mtime;
+        open++;
+    }
+
+    /**
+     * Leaves the directory entered last and writes its record
+     * @param path the path of the directory
+     * @throws UncheckedIOException if the record cannot be written
+     */
+    void exitDirectory(String path) {
+        if (open == 0) {
+            throw new IllegalStateException("No directory entered");
+        }
+        open--;
+        long size = sizes[open];
+        if (open > 0) {
+            sizes[open - 1] += size;
+        }
+        write('d', path, -1, size, mtimes[open], open);
+    }
+
+    /**
+     * Writes the buffered records and closes the file
+     * @throws IOException if the records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes one record in the format of the export
+     * @param extension the index of the extension in path, -1 for none
+     */
+    private void write(char type, String path, int extension, long size, long mtime, int depth) {
+        switch (format) {
+            case CSV:
+                put((byte) type);
+                put((byte) ',');
+                putCsv(path, 0);
+                put((byte) ',');
+                putDecimal(size);
+                put((byte) ',');
+                putDecimal(mtime);
+                put((byte) ',');
+                if (extension >= 0) {
+                    putCsv(path, extension);
+                }
+                put((byte) ',');
+                putDecimal(depth);
+                put((byte) '\n');
+                break;
+            case NDJSON:
+                putAscii("{\"type\":\"");
+                put((byte) type);
+                putAscii("\",\"path\":\"");
+                putJson(path, 0);
+                putAscii("\",\"size\":");
+                putDecimal(size);
+                putAscii(",\"mtime\":");
+                putDecimal(mtime);
+                putAscii(",\"extension\":\"");
+                if (extension >= 0) {
+                    putJson(path, extension);
+                }
+                putAscii("\",\"depth\":");
+                putDecimal(depth);
+                putAscii("}\n");
+                break;
+            default:
+                put((byte) type);
+                putVarint(depth);
+                putVarint(size);
+                putVarint((mtime << 1) ^ (mtime >> 63));
+                putVarint(utf8Length(path, 0));
+                putUtf8(path, 0, path.length());
+                putVarint(extension < 0 ? 0 : utf8Length(path, extension));
+                if (extension >= 0) {
+                    putUtf8(path, extension, path.length());
+                }
+        }
+    }
+
+    /**
+     * Writes a CSV field, quoted if it contains a comma, a quote or a line break
+     */
+    private void putCsv(String s, int from) {
+        boolean quote = false;
+        for (int i = from; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            putUtf8(s, from, s.length());
+            return;
+        }
+        put((byte) '"');
+        int start = from;
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == '"') {
+                // a quote is doubled
+                putUtf8(s, start, i + 1);
+                start = i;
+            }
+        }
+        putUtf8(s, start, s.length());
+        put((byte) '"');
+    }
+
+    /**
+     * Writes the content of a JSON string, escaping quotes, backslashes and control characters
+     */
+    private void putJson(String s, int from) {
+        int start = from;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                putUtf8(s, start, i);
+                put((byte) '\\');
+                if (c == '"' || c == '\\') {
+                    put((byte) c);
+                } else if (c == '\n') {
+                    put((byte) 'n');
+                } else if (c == '\t') {
+                    put((byte) 't');
+                } else if (c == '\r') {
+                    put((byte) 'r');
+                } else {
+                    putAscii("u00");
+                    put(HEX[c >> 4]);
+                    put(HEX[c & 0xF]);
+                }
+                start = i + 1;
+            }
+        }
+        putUtf8(s, start, s.length());
+    }
+
+    /**
+     * Encodes s[from, to) to UTF-8, an unpaired surrogate becomes '?'
+     */
+    private void putUtf8(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                int cp = Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))
+                        ? Character.toCodePoint(c, s.charAt(++i)) : -1;
+                if (cp < 0) {
+                    put((byte) '?');
+                } else {
+                    ensure(4);
+                    buffer.put((byte) (0xF0 | cp >> 18));
+                    buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | cp & 0x3F));
+                }
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Number of bytes putUtf8 writes for s[from, length)
+     */
+    private static int utf8Length(String s, int from) {
+        int length = 0;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the decimal digits of a number
+     */
+    private void putDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            putAscii("-9223372036854775808");
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint, 7 bits per byte, low bits first
+     */
+    private void putVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    /**
+     * Makes room for bytes in the buffer, writing it if needed
+     */
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the channel
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Backends that DirectoryManipulation can use to walk a directory tree
+ */
+public enum ScanBackend {
+    /**
+     * java.io.File walk, separate calls for isFile, length and listFiles
+     */
+    FILE,
+    /**
+     * java.nio.file walk, the attributes of each entry are read once
+     * while the directory is iterated
+     */
+    NIO
+}
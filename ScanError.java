@@ -0,0 +1,36 @@
+/**
+ * Path, cause and message of one entry that a scan could not read
+ */
+public class ScanError {
+    private final String path;
+    private final ScanErrorCause cause;
+    private final String message;
+
+    /**
+     * Constructor
+     * @param path the path of the entry
+     * @param cause the cause of the error
+     * @param message the message of the error, may be null
+     */
+    public ScanError(String path, ScanErrorCause cause, String message) {
+        this.path = path;
+        this.cause = cause;
+        this.message = message;
+    }
+
+    /**
+     * Getter for path
+     * @return the value of path
+     */
+    public String getPath() { return path; }
+    /**
+     * Getter for cause
+     * @return the value of cause
+     */
+    public ScanErrorCause getCause() { return cause; }
+    /**
+     * Getter for message
+     * @return the message of the error, null if there was none
+     */
+    public String getMessage() { return message; }
+}
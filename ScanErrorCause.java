@@ -0,0 +1,39 @@
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Causes of the errors collected by a scan
+ */
+public enum ScanErrorCause {
+    /**
+     * permission denied by the file system (EACCES) or by a security manager
+     */
+    ACCESS_DENIED,
+    /**
+     * the entry disappeared between the listing of its directory and its
+     * reading (ENOENT)
+     */
+    NOT_FOUND,
+    /**
+     * any other error while listing or reading an entry (EIO, ELOOP,
+     * EPERM, an invalid path...)
+     */
+    IO_ERROR;
+
+    /**
+     * Classifies an exception thrown while accessing an entry
+     * @param e the exception
+     * @return its cause
+     */
+    static ScanErrorCause of(Throwable e) {
+        Throwable cause = e instanceof DirectoryIteratorException ? e.getCause() : e;
+        if (cause instanceof AccessDeniedException || cause instanceof SecurityException) {
+            return ACCESS_DENIED;
+        }
+        if (cause instanceof NoSuchFileException) {
+            return NOT_FOUND;
+        }
+        return IO_ERROR;
+    }
+}
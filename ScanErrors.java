@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded collector of the errors of a scan, shared by all its threads.
+ * Every error is counted by cause, but only a fixed number of them is
+ * kept: the first ones, in the order they were reported, and a uniform
+ * sample of the ones after them, drawn by reservoir sampling (algorithm
+ * R). A scan with millions of denied directories costs the same memory as
+ * a scan with a few hundred, and a ScanError is only allocated for an
+ * error that is kept or written. Every update is an atomic increment or a
+ * set in an atomic array, so threads never wait for each other.
+ * Every error can also be appended to a sink file, one line each: the
+ * cause, the path and the message separated by tabs, with backslashes,
+ * tabs and line breaks escaped. Each line is one write on a channel in
+ * append mode, so the lines of several threads do not interleave. A
+ * thread interrupted during a write closes the channel for every thread:
+ * the interrupt is restored, the sink is dropped and the failure can be
+ * read with getSinkFailure. A write that fails for any other reason (a
+ * full disk, an I/O error) drops the sink the same way, so the sink never
+ * fails the scan: the later errors are only counted and kept.
+ */
+public class ScanErrors {
+
+    /** number of first errors kept by default */
+    static final int DEFAULT_FIRST_COUNT = 100;
+    /** number of sampled errors kept by default */
+    static final int DEFAULT_SAMPLE_COUNT = 100;
+    /** returned by slot for an error that is not kept */
+    private static final int DROPPED = -1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(ScanErrorCause.values().length);
+    /** number of errors offered to first and sample */
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicReferenceArray<ScanError> first;
+    private final AtomicReferenceArray<ScanError> sample;
+    private volatile FileChannel sink;
+    /** the exception that made the sink fail, or null */
+    private volatile IOException sinkFailure;
+
+    /**
+     * Default constructor, keeps the first 100 errors and a sample of 100
+     */
+    public ScanErrors() {
+        this(DEFAULT_FIRST_COUNT, DEFAULT_SAMPLE_COUNT);
+    }
+
+    /**
+     * Constructor
+     * @param firstCount the number of first errors kept
+     * @param sampleCount the number of errors sampled after the first ones
+     * @throws IllegalArgumentException if a count is negative
+     */
+    public ScanErrors(int firstCount, int sampleCount) {
+        if (firstCount < 0 || sampleCount < 0) {
+            throw new IllegalArgumentException("Invalid count");
+        }
+        first = new AtomicReferenceArray<>(firstCount);
+        sample = new AtomicReferenceArray<>(sampleCount);
+    }
+
+    /**
+     * Appends every error reported from now on to a file, replacing the
+     * previous sink
+     * @param file the file, created if it does not exist, or null to stop
+     * @throws UncheckedIOException if the file cannot be opened or the
+     * previous sink cannot be closed
+     */
+    public synchronized void setSink(Path file) {
+        try {
+            FileChannel previous = sink;
+            sink = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            sinkFailure = null;
+            if (previous != null) {
+                previous.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Getter for sinkFailure
+     * @return the exception that made the sink fail, after which the errors
+     * were no longer written, or null if the sink did not fail
+     */
+    public IOException getSinkFailure() { return sinkFailure; }
+
+    /**
+     * Getter for the total number of errors
+     * @return the number of errors of every cause
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Getter for the number of errors of a cause
+     * @param cause the cause
+     * @return the number of errors of cause
+     */
+    public long getCount(ScanErrorCause cause) {
+        return counts.get(cause.ordinal());
+    }
+
+    /**
+     * Builds a snapshot of the first errors
+     * @return a new array of the first errors, in the order they were reported
+     */
+    public ScanError[] getFirstErrors() {
+        return snapshot(first);
+    }
+
+    /**
+     * Builds a snapshot of the sample of the errors after the first ones
+     * @return a new array of at most the sample count errors, each error
+     * after the first ones having the same chance to be in it
+     */
+    public ScanError[] getSampledErrors() {
+        return snapshot(sample);
+    }
+
+    /**
+     * records an error
+     * @param path the path of the entry
+     * @param cause the cause of the error
+     * @param message the message of the error, may be null
+     */
+    void add(String path, ScanErrorCause cause, String message) {
+        counts.incrementAndGet(cause.ordinal());
+        int slot = slot();
+        FileChannel channel = sink;
+        if (slot == DROPPED && channel == null) {
+            return;
+        }
+        ScanError error = new ScanError(path, cause, message);
+        if (slot != DROPPED) {
+            set(slot, error);
+        }
+        if (channel != null) {
+            write(channel, error);
+        }
+    }
+
+    /**
+     * records an error from the exception thrown while accessing an entry
+     * @param path the path of the entry
+     * @param e the exception
+     */
+    void add(String path, Throwable e) {
+        add(path, ScanErrorCause.of(e), message(e));
+    }
+
+    /**
+     * adds the counts of other and offers its kept errors to this
+     * collector; the errors other did not keep cannot be sampled
+     * @param other the errors to add, not written to the sink again
+     */
+    void merge(ScanErrors other) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        for (ScanError error : other.getFirstErrors()) {
+            keep(error);
+        }
+        for (ScanError error : other.getSampledErrors()) {
+            keep(error);
+        }
+    }
+
+    /**
+     * Keeps an error if it is one of the first ones or is drawn in the sample
+     */
+    private void keep(ScanError error) {
+        int slot = slot();
+        if (slot != DROPPED) {
+            set(slot, error);
+        }
+    }
+
+    /**
+     * Draws where the next error offered is kept
+     * @return the index in first, or the index in sample minus the length
+     * of first, or DROPPED if the error is not kept
+     */
+    private int slot() {
+        long n = offered.getAndIncrement();
+        if (n < first.length()) {
+            return (int) n;
+        }
+        long k = n - first.length();
+        if (k < sample.length()) {
+            return first.length() + (int) k;
+        }
+        // the (k+1)-th error after the first ones replaces a random slot with probability size/(k+1)
+        long slot = ThreadLocalRandom.current().nextLong(k + 1);
+        return slot < sample.length() ? first.length() + (int) slot : DROPPED;
+    }
+
+    /**
+     * Stores an error in the slot drawn by slot
+     */
+    private void set(int slot, ScanError error) {
+        if (slot < first.length()) {
+            first.set(slot, error);
+        } else {
+            sample.set(slot - first.length(), error);
+        }
+    }
+
+    /**
+     * Drops and closes the sink that failed with an exception, unless it
+     * was replaced meanwhile
+     */
+    private synchronized void sinkFailed(FileChannel channel, IOException e) {
+        if (sink == channel) {
+            sink = null;
+            sinkFailure = e;
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * Appends one line to the sink
+     */
+    private void write(FileChannel channel, ScanError error) {
+        String line = error.getCause() + "\t" + escape(error.getPath()) + "\t"
+                + (error.getMessage() == null ? "" : escape(error.getMessage())) + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (ClosedChannelException e) {
+            if (e instanceof ClosedByInterruptException) {
+                // the interrupt closed the channel and cleared the flag
+                Thread.currentThread().interrupt();
+            }
+            // closed by an interrupt, or replaced while the error was being written
+            sinkFailed(channel, e);
+        } catch (IOException e) {
+            // a full disk or an I/O error: the errors are no longer written
+            sinkFailed(channel, e);
+        }
+    }
+
+    /**
+     * Escapes the characters that would break the lines of the sink
+     */
+    private static String escape(String s) {
+        if (s.indexOf('\\') < 0 && s.indexOf('\t') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Extracts the reason of an exception, without the path it repeats
+     * @return the reason, null if the cause says it all
+     */
+    private static String message(Throwable e) {
+        Throwable cause = e instanceof DirectoryIteratorException ? e.getCause() : e;
+        if (cause instanceof FileSystemException) {
+            return ((FileSystemException) cause).getReason();
+        }
+        return cause.getMessage();
+    }
+
+    /**
+     * Copies the errors set in an array
+     */
+    private static ScanError[] snapshot(AtomicReferenceArray<ScanError> errors) {
+        List<ScanError> result = new ArrayList<>();
+        for (int i = 0; i < errors.length(); i++) {
+            ScanError error = errors.get(i);
+            if (error != null) {
+                result.add(error);
+            }
+        }
+        return result.toArray(new ScanError[0]);
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of a directory scan used for incremental re-analysis.
+ * For every directory the index keeps its modification time, the names and
+ * sizes of its files and the names of its subdirectories, and the index
+ * keeps the time its scan started. A directory whose modification time did
+ * not change since the index was written has the same entries, so its
+ * files can be taken from the index instead of listing and reading them
+ * again.
+ * Like the racily clean entries of git, a directory modified less than
+ * TIMESTAMP_GRANULARITY before the scan started may have changed again
+ * after it was listed without a new modification time, so it is listed
+ * again by the next scan.
+ * A directory's modification time only changes when an entry is created,
+ * deleted or renamed in it, so a file rewritten in place keeps its old size
+ * until its directory changes: such changes are not detected.
+ * Paths and names are written as a length and their UTF-8 bytes, so a
+ * path of any length can be saved.
+ */
+class ScanIndex {
+
+    private static final int MAGIC = 0x44495833; // "DIX3"
+    /** coarsest modification time resolution of the usual file systems (FAT), in milliseconds */
+    static final long TIMESTAMP_GRANULARITY = 2000;
+
+    private final Map<String, DirectoryRecord> records = new HashMap<>();
+    /** when the scan of the index started, in milliseconds since the epoch */
+    private final long time;
+
+    /**
+     * Entries of one directory at the time it was listed
+     */
+    static final class DirectoryRecord {
+        final long lastModified;
+        final String[] fileNames;
+        final long[] fileSizes;
+        final String[] subdirectories;
+        /** entries that are neither regular files nor directories */
+        final int otherCount;
+
+        DirectoryRecord(long lastModified, String[] fileNames, long[] fileSizes, String[] subdirectories, int otherCount) {
+            this.lastModified = lastModified;
+            this.fileNames = fileNames;
+            this.fileSizes = fileSizes;
+            this.subdirectories = subdirectories;
+            this.otherCount = otherCount;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param time when the scan of the index started, in milliseconds since the epoch
+     */
+    ScanIndex(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Getter for the record of a directory whose entries can be reused
+     * @param path absolute path of the directory
+     * @param lastModified the current modification time of the directory
+     * @return the record, or null if the directory is not in the index, was
+     * modified since, or was modified too close to the time of the index to
+     * tell
+     */
+    DirectoryRecord getUnchanged(String path, long lastModified) {
+        DirectoryRecord record = records.get(path);
+        if (record == null || lastModified == 0 || record.lastModified != lastModified
+                || lastModified > time - TIMESTAMP_GRANULARITY) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * adds or replaces the record of a directory
+     * @param path absolute path of the directory
+     * @param record the entries of the directory
+     */
+    void put(String path, DirectoryRecord record) {
+        records.put(path, record);
+    }
+
+    /**
+     * Getter for the number of directories
+     * @return the number of records
+     */
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * Reads an index written by save
+     * @param file the index file
+     * @return the index, empty if the file does not exist
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    static ScanIndex load(Path file) throws IOException {
+        ScanIndex index;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a scan index: " + file);
+            }
+            index = new ScanIndex(in.readLong());
+            int count = in.readInt();
+            for (int r = 0; r < count; r++) {
+                String path = readString(in);
+                long lastModified = in.readLong();
+                int otherCount = in.readInt();
+                int files = in.readInt();
+                String[] fileNames = new String[files];
+                long[] fileSizes = new long[files];
+                for (int i = 0; i < files; i++) {
+                    fileNames[i] = readString(in);
+                    fileSizes[i] = in.readLong();
+                }
+                String[] subdirectories = new String[in.readInt()];
+                for (int i = 0; i < subdirectories.length; i++) {
+                    subdirectories[i] = readString(in);
+                }
+                index.records.put(path, new DirectoryRecord(lastModified, fileNames, fileSizes, subdirectories, otherCount));
+            }
+        } catch (NoSuchFileException e) {
+            return new ScanIndex(0);
+        }
+        return index;
+    }
+
+    /**
+     * Reads a string written by writeString
+     * @throws IOException if the length is invalid or the stream ends
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a string as its length and its UTF-8 bytes; unlike writeUTF
+     * it has no 65535 bytes limit
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the index to a temporary file which then replaces file,
+     * so an interrupted save leaves the previous index intact
+     * @param file the index file
+     * @throws IOException if the index cannot be written
+     */
+    void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeLong(time);
+                out.writeInt(records.size());
+                for (Map.Entry<String, DirectoryRecord> e : records.entrySet()) {
+                    DirectoryRecord record = e.getValue();
+                    writeString(out, e.getKey());
+                    out.writeLong(record.lastModified);
+                    out.writeInt(record.otherCount);
+                    out.writeInt(record.fileNames.length);
+                    for (int i = 0; i < record.fileNames.length; i++) {
+                        writeString(out, record.fileNames[i]);
+                        out.writeLong(record.fileSizes[i]);
+                    }
+                    out.writeInt(record.subdirectories.length);
+                    for (String name : record.subdirectories) {
+                        writeString(out, name);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
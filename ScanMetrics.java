@@ -0,0 +1,466 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of the operations of DirectoryManipulation, published as
+ * an MXBean: the progress of the running operation (its current
+ * directory, files and bytes per second, queued work) and the count and
+ * latency histogram of every ScanOperation.
+ * Every thread records into its own Recorder, whose counters only that
+ * thread writes, with plain increments published with opaque stores, so
+ * recording costs no atomic instruction and the threads of a parallel
+ * scan share no cache line. Readers add up the recorders. The recorders of
+ * the threads that ended are folded into one, so pools created for every
+ * scan do not leak them.
+ * Every operation is counted. Only about one LIST or STAT in
+ * SAMPLE_INTERVAL, at random intervals, is timed, which keeps the two
+ * clock reads off the per-entry path; READ and DELETE cost far more than
+ * the clock and are all timed. The size scans count the STATs of a
+ * directory in one batch, untimed; the sequential walk also counts its
+ * LISTs in batches and times one LIST per batch, see TreeWalker. A
+ * timed latency goes to a log-linear histogram of four buckets per power
+ * of two.
+ * The files and bytes of a scan are the counters of its statistics, read
+ * while the scan runs, so the metrics add nothing per file.
+ * One instance can be shared by several DirectoryManipulation; the
+ * progress is then the one of the last operation started.
+ */
+public class ScanMetrics implements ScanMetricsMXBean {
+
+    /** mean number of operations between two timed ones */
+    static final int SAMPLE_INTERVAL = 64;
+    private static final int OPERATIONS = ScanOperation.values().length;
+    /** per operation: the count, the number timed, their sum and their maximum */
+    private static final int TOTALS = 4;
+    /** 4 exact buckets below 4 ns, then 4 per power of two up to 2^63 */
+    private static final int BUCKETS = 4 + 61 * 4;
+    /** returned by Recorder.start when the operation is not timed */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final List<Recorder> recorders = new ArrayList<>();
+    /** sum of the recorders of the threads that ended */
+    private final Recorder retired = new Recorder(null);
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(this::newRecorder);
+    private volatile Run run;
+    /** File or Path of the directory being walked, turned into a String when read */
+    private volatile Object currentDirectory;
+    private ObjectName name;
+
+    /**
+     * One operation of DirectoryManipulation and the counters of its progress
+     */
+    private static final class Run {
+        final String task;
+        final long start = System.nanoTime();
+        volatile long end;
+        final LongSupplier files;
+        final LongSupplier bytes;
+        final LongSupplier queueDepth;
+        final long baseFiles;
+        final long baseBytes;
+
+        Run(String task, LongSupplier files, LongSupplier bytes, LongSupplier queueDepth) {
+            this.task = task;
+            this.files = files;
+            this.bytes = bytes;
+            this.queueDepth = queueDepth;
+            this.baseFiles = files.getAsLong();
+            this.baseBytes = bytes.getAsLong();
+        }
+
+        long elapsedNanos() {
+            long stop = end;
+            return (stop == 0 ? System.nanoTime() : stop) - start;
+        }
+    }
+
+    /**
+     * Counters and histograms written by one thread
+     */
+    static final class Recorder {
+        /** the writing thread, null for the retired recorders */
+        private final Thread owner;
+        private final AtomicLongArray totals = new AtomicLongArray(OPERATIONS * TOTALS + 1);
+        private final AtomicLongArray buckets = new AtomicLongArray(OPERATIONS * BUCKETS);
+        /** operations left before the next timed one */
+        private int untilTimed;
+        /** xorshift state of the intervals between timed operations */
+        private long random;
+
+        Recorder(Thread owner) {
+            this.owner = owner;
+            this.random = System.nanoTime() | 1;
+            this.untilTimed = SAMPLE_INTERVAL;
+        }
+
+        /**
+         * Starts an operation, reading the clock if it is timed
+         * @return the start time, or NOT_TIMED
+         */
+        long start() {
+            if (--untilTimed > 0) {
+                return NOT_TIMED;
+            }
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            untilTimed = 1 + (int) (random & (2 * SAMPLE_INTERVAL - 1));
+            return System.nanoTime();
+        }
+
+        /**
+         * Starts an operation that is always timed
+         * @return the start time
+         */
+        long time() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Counts an operation and adds its latency if it was timed
+         * @param operation the operation
+         * @param start the value returned by start
+         */
+        void record(ScanOperation operation, long start) {
+            int base = operation.ordinal() * TOTALS;
+            add(totals, base, 1);
+            if (start != NOT_TIMED) {
+                long nanos = Math.max(0, System.nanoTime() - start);
+                add(totals, base + 1, 1);
+                add(totals, base + 2, nanos);
+                if (nanos > totals.getPlain(base + 3)) {
+                    totals.setOpaque(base + 3, nanos);
+                }
+                add(buckets, operation.ordinal() * BUCKETS + bucket(nanos), 1);
+            }
+        }
+
+        /**
+         * Counts operations that cannot be timed, made inside a library call
+         * @param operation the operation
+         * @param count the number of operations
+         */
+        void count(ScanOperation operation, long count) {
+            add(totals, operation.ordinal() * TOTALS, count);
+        }
+
+        /**
+         * Counts the bytes read from files
+         * @param count the number of bytes
+         */
+        void addBytesRead(long count) {
+            add(totals, OPERATIONS * TOTALS, count);
+        }
+
+        /**
+         * Adds the counters of another recorder, under the lock of the metrics
+         */
+        private void addAll(Recorder other) {
+            for (int i = 0; i < totals.length(); i++) {
+                long value = other.totals.getOpaque(i);
+                if (i % TOTALS == 3 && i < OPERATIONS * TOTALS) {
+                    totals.setOpaque(i, Math.max(totals.getPlain(i), value));
+                } else {
+                    add(totals, i, value);
+                }
+            }
+            for (int i = 0; i < buckets.length(); i++) {
+                add(buckets, i, other.buckets.getOpaque(i));
+            }
+        }
+
+        /**
+         * Increments a counter written by one thread only
+         */
+        private static void add(AtomicLongArray array, int index, long value) {
+            array.setOpaque(index, array.getPlain(index) + value);
+        }
+    }
+
+    /**
+     * Getter for the recorder of the calling thread, to be kept by the
+     * caller for as long as it runs on this thread
+     * @return the recorder of the thread
+     */
+    Recorder recorder() {
+        return recorder.get();
+    }
+
+    /**
+     * Creates the recorder of the calling thread, folding the ones of the
+     * threads that ended
+     */
+    private Recorder newRecorder() {
+        Recorder created = new Recorder(Thread.currentThread());
+        synchronized (recorders) {
+            sweep();
+            recorders.add(created);
+        }
+        return created;
+    }
+
+    /**
+     * Folds the recorders of the threads that ended into retired, which is
+     * safe since the end of a thread happens before isAlive returns false
+     */
+    private void sweep() {
+        for (Iterator<Recorder> i = recorders.iterator(); i.hasNext();) {
+            Recorder r = i.next();
+            if (!r.owner.isAlive()) {
+                retired.addAll(r);
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Marks the start of an operation
+     * @param task the name of the operation and its directory
+     * @param files the counter of the files of the operation
+     * @param bytes the counter of the bytes of the operation
+     * @param queueDepth the counter of the work queued by the operation
+     */
+    void begin(String task, LongSupplier files, LongSupplier bytes, LongSupplier queueDepth) {
+        run = new Run(task, files, bytes, queueDepth);
+    }
+
+    /**
+     * Marks the end of the last operation started
+     */
+    void end() {
+        Run r = run;
+        if (r != null) {
+            r.end = r.start + Math.max(1, System.nanoTime() - r.start);
+        }
+    }
+
+    /**
+     * Records the directory being walked
+     * @param directory the File or Path of the directory
+     */
+    void enterDirectory(Object directory) {
+        currentDirectory = directory;
+    }
+
+    /**
+     * Getter for the number of operations of a kind
+     * @param operation the operation
+     * @return the number made since the metrics were created
+     */
+    long getCount(ScanOperation operation) {
+        return sum(operation.ordinal() * TOTALS);
+    }
+
+    /**
+     * Getter for the bytes read by findWord
+     * @return the bytes read since the metrics were created
+     */
+    long getBytesRead() {
+        return sum(OPERATIONS * TOTALS);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under
+     * DirectoryManipulation:type=ScanMetrics,name=name
+     * @param name the name of the metrics, any string
+     * @return the name under which the metrics are registered
+     * @throws IllegalStateException if the metrics are already registered or the name is taken
+     */
+    public synchronized ObjectName register(String name) {
+        if (this.name != null) {
+            throw new IllegalStateException("Already registered as " + this.name);
+        }
+        try {
+            ObjectName objectName = new ObjectName("DirectoryManipulation:type=ScanMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the metrics as " + name, e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they are registered
+     */
+    public synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            // already unregistered through the server
+        }
+        name = null;
+    }
+
+    @Override
+    public String getCurrentTask() {
+        Run r = run;
+        return r == null ? null : r.task;
+    }
+
+    @Override
+    public boolean isRunning() {
+        Run r = run;
+        return r != null && r.end == 0;
+    }
+
+    @Override
+    public String getCurrentDirectory() {
+        Object directory = currentDirectory;
+        return directory == null ? null : directory.toString();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        Run r = run;
+        return r == null ? 0 : r.elapsedNanos() / 1_000_000;
+    }
+
+    @Override
+    public long getFileCount() {
+        Run r = run;
+        return r == null ? 0 : r.files.getAsLong() - r.baseFiles;
+    }
+
+    @Override
+    public long getByteCount() {
+        Run r = run;
+        return r == null ? 0 : r.bytes.getAsLong() - r.baseBytes;
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        Run r = run;
+        return r == null ? 0 : perSecond(r.files.getAsLong() - r.baseFiles, r.elapsedNanos());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        Run r = run;
+        return r == null ? 0 : perSecond(r.bytes.getAsLong() - r.baseBytes, r.elapsedNanos());
+    }
+
+    @Override
+    public long getQueueDepth() {
+        Run r = run;
+        return r == null || r.end != 0 ? 0 : r.queueDepth.getAsLong();
+    }
+
+    @Override
+    public OperationLatency getListLatency() { return getLatency(ScanOperation.LIST); }
+
+    @Override
+    public OperationLatency getStatLatency() { return getLatency(ScanOperation.STAT); }
+
+    @Override
+    public OperationLatency getReadLatency() { return getLatency(ScanOperation.READ); }
+
+    @Override
+    public OperationLatency getDeleteLatency() { return getLatency(ScanOperation.DELETE); }
+
+    /**
+     * Sums the recorders into the latency of one operation
+     * @param operation the operation
+     * @return its count and latency percentiles
+     */
+    public OperationLatency getLatency(ScanOperation operation) {
+        int base = operation.ordinal() * TOTALS;
+        long[] histogram = new long[BUCKETS];
+        long count;
+        long timed;
+        long sum;
+        long max;
+        synchronized (recorders) {
+            sweep();
+            count = sum(base);
+            timed = sum(base + 1);
+            sum = sum(base + 2);
+            max = retired.totals.getOpaque(base + 3);
+            for (Recorder r : recorders) {
+                max = Math.max(max, r.totals.getOpaque(base + 3));
+            }
+            int offset = operation.ordinal() * BUCKETS;
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = retired.buckets.getOpaque(offset + b);
+                for (Recorder r : recorders) {
+                    histogram[b] += r.buckets.getOpaque(offset + b);
+                }
+            }
+        }
+        // the histogram is read after the totals, it may hold a few more samples
+        long samples = 0;
+        for (long n : histogram) {
+            samples += n;
+        }
+        return new OperationLatency(operation.name(), count, timed, timed == 0 ? 0 : sum / timed,
+                percentile(histogram, samples, 0.50, max), percentile(histogram, samples, 0.90, max),
+                percentile(histogram, samples, 0.99, max), max);
+    }
+
+    /**
+     * Sums one counter of all the recorders
+     */
+    private long sum(int index) {
+        synchronized (recorders) {
+            long total = retired.totals.getOpaque(index);
+            for (Recorder r : recorders) {
+                total += r.totals.getOpaque(index);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Index of the bucket of a latency: the value below 4, else 4 buckets
+     * per power of two from the two bits after the highest one
+     */
+    static int bucket(long nanos) {
+        if (nanos < 4) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return 4 + (exponent - 2) * 4 + (int) ((nanos >>> (exponent - 2)) & 3);
+    }
+
+    /**
+     * Midpoint of the bucket holding a quantile of the histogram
+     */
+    private static long percentile(long[] histogram, long samples, double quantile, long max) {
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * samples));
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                if (b < 4) {
+                    return b;
+                }
+                int exponent = (b - 4) / 4 + 2;
+                long width = 1L << (exponent - 2);
+                long low = (4L + (b - 4) % 4) * width;
+                return Math.min(max, low + width / 2);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Rate of a count over a duration
+     */
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * 1e9 / nanos;
+    }
+}
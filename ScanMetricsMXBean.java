@@ -0,0 +1,75 @@
+/**
+ * Management interface of ScanMetrics, registered with the platform
+ * MBean server by ScanMetrics.register. The attributes are computed when
+ * they are read; the latencies are CompositeData with the fields of
+ * OperationLatency.
+ */
+public interface ScanMetricsMXBean {
+    /**
+     * Getter for the running operation
+     * @return the name and the directory of the running or last operation, null before the first one
+     */
+    String getCurrentTask();
+    /**
+     * Tells if an operation is running
+     * @return true between the start and the end of an operation
+     */
+    boolean isRunning();
+    /**
+     * Getter for the directory being walked
+     * @return the path of the last directory entered, null before the first one
+     */
+    String getCurrentDirectory();
+    /**
+     * Getter for the duration of the running or last operation
+     * @return the milliseconds since its start, or until its end
+     */
+    long getElapsedMillis();
+    /**
+     * Getter for the files of the running or last operation
+     * @return the number of files counted by a scan or read by findWord,
+     * or of entries visited by findFile and cleanDirectory
+     */
+    long getFileCount();
+    /**
+     * Getter for the bytes of the running or last operation
+     * @return the size of the files counted by a scan or the bytes read by findWord
+     */
+    long getByteCount();
+    /**
+     * Getter for the file rate of the running or last operation
+     * @return getFileCount divided by the elapsed seconds
+     */
+    double getFilesPerSecond();
+    /**
+     * Getter for the byte rate of the running or last operation
+     * @return getByteCount divided by the elapsed seconds
+     */
+    double getBytesPerSecond();
+    /**
+     * Getter for the work waiting in the running operation
+     * @return the directories queued by a parallel scan or the files queued
+     * by findWord, 0 for a sequential operation
+     */
+    long getQueueDepth();
+    /**
+     * Getter for the directory listings
+     * @return the count and latencies of LIST since the metrics were created
+     */
+    OperationLatency getListLatency();
+    /**
+     * Getter for the attribute reads
+     * @return the count and latencies of STAT since the metrics were created
+     */
+    OperationLatency getStatLatency();
+    /**
+     * Getter for the file reads
+     * @return the count and latencies of READ since the metrics were created
+     */
+    OperationLatency getReadLatency();
+    /**
+     * Getter for the deletions
+     * @return the count and latencies of DELETE since the metrics were created
+     */
+    OperationLatency getDeleteLatency();
+}
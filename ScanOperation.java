@@ -0,0 +1,21 @@
+/**
+ * File system operations counted and timed by ScanMetrics
+ */
+public enum ScanOperation {
+    /**
+     * opening a directory to read its entries
+     */
+    LIST,
+    /**
+     * reading the type or the attributes of an entry
+     */
+    STAT,
+    /**
+     * opening and reading the content of a file, by findWord
+     */
+    READ,
+    /**
+     * deleting a file or a directory, by cleanDirectory
+     */
+    DELETE
+}
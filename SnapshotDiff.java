@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Differences between two snapshots of the same directories, written by
+ * DirectoryManipulation.saveSnapshot at two different times.
+ * The snapshots are merged in one pass over their sorted records. A
+ * directory in both snapshots whose size changed is a grower or a
+ * shrinker; a directory in only one of them is the top of a new or a
+ * deleted subtree, whose subdirectories are skipped. Only the largest
+ * changes of each kind are kept, in bounded min-heaps, and only their
+ * paths are built, so neither snapshot is held in memory.
+ * The sizes are rolled up, so the ancestors of a directory that grew
+ * have grown too.
+ */
+public class SnapshotDiff {
+
+    private static final Comparator<DirectoryChange> BY_MAGNITUDE =
+            Comparator.comparingLong(change -> Math.abs(change.getDelta()));
+
+    private final int limit;
+    private final PriorityQueue<DirectoryChange> growers;
+    private final PriorityQueue<DirectoryChange> shrinkers;
+    private final PriorityQueue<DirectoryChange> newSubtrees;
+    private final PriorityQueue<DirectoryChange> deletedSubtrees;
+    private long newSubtreeCount;
+    private long deletedSubtreeCount;
+    private long changedCount;
+    private long oldTotalSize;
+    private long newTotalSize;
+    private long oldTime;
+    private long newTime;
+
+    /**
+     * Constructor
+     * @param limit the maximum number of changes kept of each kind
+     */
+    private SnapshotDiff(int limit) {
+        this.limit = limit;
+        int capacity = Math.max(1, Math.min(limit, 1024));
+        growers = new PriorityQueue<>(capacity, BY_MAGNITUDE);
+        shrinkers = new PriorityQueue<>(capacity, BY_MAGNITUDE);
+        newSubtrees = new PriorityQueue<>(capacity, BY_MAGNITUDE);
+        deletedSubtrees = new PriorityQueue<>(capacity, BY_MAGNITUDE);
+    }
+
+    /**
+     * Compares two snapshots
+     * @param older the snapshot of the earlier run
+     * @param newer the snapshot of the later run
+     * @param limit the maximum number of changes kept of each kind
+     * @return the differences from older to newer
+     * @throws IOException if a snapshot cannot be read, is corrupt or not sorted
+     * @throws IllegalArgumentException if limit is negative
+     */
+    static SnapshotDiff compare(Path older, Path newer, int limit) throws IOException {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid limit");
+        }
+        SnapshotDiff diff = new SnapshotDiff(limit);
+        try (DirectorySnapshot.Reader a = new DirectorySnapshot.Reader(older);
+                DirectorySnapshot.Reader b = new DirectorySnapshot.Reader(newer)) {
+            diff.oldTime = a.time();
+            diff.newTime = b.time();
+            diff.merge(a, b);
+        }
+        return diff;
+    }
+
+    /**
+     * Merges the records of the two snapshots
+     */
+    private void merge(DirectorySnapshot.Reader a, DirectorySnapshot.Reader b) throws IOException {
+        boolean hasA = a.next();
+        boolean hasB = b.next();
+        while (hasA || hasB) {
+            int c = !hasA ? 1 : !hasB ? -1 : a.compareTo(b);
+            if (c == 0) {
+                if (a.depth() == 0) {
+                    oldTotalSize += a.size();
+                    newTotalSize += b.size();
+                }
+                long delta = b.size() - a.size();
+                if (delta != 0) {
+                    changedCount++;
+                    offer(delta > 0 ? growers : shrinkers, Math.abs(delta), a, a.size(), b.size(), a.fileCount(), b.fileCount());
+                }
+                hasA = a.next();
+                hasB = b.next();
+            } else if (c < 0) {
+                deletedSubtreeCount++;
+                if (a.depth() == 0) {
+                    oldTotalSize += a.size();
+                }
+                offer(deletedSubtrees, a.size(), a, a.size(), 0, a.fileCount(), 0);
+                hasA = a.skipSubtree();
+            } else {
+                newSubtreeCount++;
+                if (b.depth() == 0) {
+                    newTotalSize += b.size();
+                }
+                offer(newSubtrees, b.size(), b, 0, b.size(), 0, b.fileCount());
+                hasB = b.skipSubtree();
+            }
+        }
+    }
+
+    /**
+     * Adds a change to a heap if it is among the limit largest, the path
+     * is only built then
+     */
+    private void offer(PriorityQueue<DirectoryChange> heap, long magnitude, DirectorySnapshot.Reader at,
+            long oldSize, long newSize, long oldFileCount, long newFileCount) {
+        if (limit == 0 || heap.size() == limit && magnitude <= Math.abs(heap.peek().getDelta())) {
+            return;
+        }
+        if (heap.size() == limit) {
+            heap.poll();
+        }
+        heap.add(new DirectoryChange(at.path(), at.depth(), oldSize, newSize, oldFileCount, newFileCount));
+    }
+
+    /**
+     * Copies a heap into an array
+     * @return a new array of the changes, largest first
+     */
+    private static DirectoryChange[] drain(PriorityQueue<DirectoryChange> heap) {
+        PriorityQueue<DirectoryChange> copy = new PriorityQueue<>(heap);
+        DirectoryChange[] result = new DirectoryChange[copy.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = copy.poll();
+        }
+        return result;
+    }
+
+    /**
+     * Getter for the directories that grew the most
+     * @return a new array of at most limit directories in both snapshots, largest growth first
+     */
+    public DirectoryChange[] getGrowers() { return drain(growers); }
+    /**
+     * Getter for the directories that shrank the most
+     * @return a new array of at most limit directories in both snapshots, largest shrink first
+     */
+    public DirectoryChange[] getShrinkers() { return drain(shrinkers); }
+    /**
+     * Getter for the largest new subtrees
+     * @return a new array of at most limit directories only in the newer
+     * snapshot whose parent, if any, is in both, largest first
+     */
+    public DirectoryChange[] getNewSubtrees() { return drain(newSubtrees); }
+    /**
+     * Getter for the largest deleted subtrees
+     * @return a new array of at most limit directories only in the older
+     * snapshot whose parent, if any, is in both, largest first
+     */
+    public DirectoryChange[] getDeletedSubtrees() { return drain(deletedSubtrees); }
+    /**
+     * Getter for newSubtreeCount
+     * @return the number of new subtrees, including the ones not kept
+     */
+    public long getNewSubtreeCount() { return newSubtreeCount; }
+    /**
+     * Getter for deletedSubtreeCount
+     * @return the number of deleted subtrees, including the ones not kept
+     */
+    public long getDeletedSubtreeCount() { return deletedSubtreeCount; }
+    /**
+     * Getter for changedCount
+     * @return the number of directories in both snapshots whose size changed
+     */
+    public long getChangedCount() { return changedCount; }
+    /**
+     * Getter for oldTotalSize
+     * @return the total size of the scanned directories in the older snapshot
+     */
+    public long getOldTotalSize() { return oldTotalSize; }
+    /**
+     * Getter for newTotalSize
+     * @return the total size of the scanned directories in the newer snapshot
+     */
+    public long getNewTotalSize() { return newTotalSize; }
+    /**
+     * Getter for oldTime
+     * @return when the older snapshot was written, in milliseconds since the epoch
+     */
+    public long getOldTime() { return oldTime; }
+    /**
+     * Getter for newTime
+     * @return when the newer snapshot was written, in milliseconds since the epoch
+     */
+    public long getNewTime() { return newTime; }
+}
@@ -0,0 +1,20 @@
+/**
+ * How the walks of DirectoryManipulation treat symbolic links
+ */
+public enum SymlinkPolicy {
+    /**
+     * symbolic links are ignored, neither counted nor followed, except
+     * the scanned directory itself
+     */
+    SKIP,
+    /**
+     * symbolic links are followed, except to a directory that is being
+     * walked already, which would be a cycle
+     */
+    FOLLOW,
+    /**
+     * symbolic links are followed and every directory is walked at most
+     * once, even when several links lead to it
+     */
+    FOLLOW_ONCE
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ * Tracks the K largest files seen during a scan.
+ * The files are kept in a bounded binary min-heap stored in a long[] of
+ * sizes and a parallel String[] of paths, so the smallest of the K files is
+ * at the root: a file that is not larger than it is rejected in O(1) and a
+ * larger one replaces it in O(log K). Callers should test accepts before
+ * building the path of a file, so that nothing is allocated for the files
+ * that do not qualify. Empty files are never kept, so a tree with fewer
+ * than K non-empty files lists fewer than K files.
+ * This class is not thread-safe, parallel scans keep one instance per thread
+ * and merge them.
+ */
+class TopKFiles {
+
+    private final long[] sizes;
+    private final String[] paths;
+    private int count;
+
+    /**
+     * Constructor
+     * @param capacity the number of files to keep
+     */
+    TopKFiles(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid number of largest files");
+        }
+        sizes = new long[capacity];
+        paths = new String[capacity];
+        count = 0;
+    }
+
+    /**
+     * Getter for the capacity
+     * @return the number of files kept
+     */
+    int capacity() { return sizes.length; }
+
+    /**
+     * Getter for count
+     * @return the number of files currently kept
+     */
+    int size() { return count; }
+
+    /**
+     * tells if a file of the given size would be kept
+     * @param size the size of the file
+     * @return true if offer would keep the file, never for an empty file
+     */
+    boolean accepts(long size) {
+        return size > 0 && (count < sizes.length || size > sizes[0]);
+    }
+
+    /**
+     * keeps the file if it is one of the K largest seen so far
+     * @param size the size of the file
+     * @param path the path of the file
+     */
+    void offer(long size, String path) {
+        if (size <= 0) {
+            return;
+        }
+        if (count < sizes.length) {
+            siftUp(count++, size, path);
+        } else if (size > sizes[0]) {
+            siftDown(0, size, path);
+        }
+    }
+
+    /**
+     * offers every file of other
+     * @param other the files to add
+     */
+    void merge(TopKFiles other) {
+        for (int i = 0; i < other.count; i++) {
+            offer(other.sizes[i], other.paths[i]);
+        }
+    }
+
+    /**
+     * Builds the list of the files kept
+     * @return a new array of the files, largest first
+     */
+    LargeFile[] toSortedArray() {
+        LargeFile[] files = new LargeFile[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = new LargeFile(paths[i], sizes[i]);
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(b.getSize(), a.getSize()));
+        return files;
+    }
+
+    /**
+     * moves a new entry up from index i until its parent is not larger
+     */
+    private void siftUp(int i, long size, String path) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (sizes[parent] <= size) {
+                break;
+            }
+            sizes[i] = sizes[parent];
+            paths[i] = paths[parent];
+            i = parent;
+        }
+        sizes[i] = size;
+        paths[i] = path;
+    }
+
+    /**
+     * moves a new entry down from index i until its children are not smaller
+     */
+    private void siftDown(int i, long size, String path) {
+        int half = count >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < count && sizes[right] < sizes[child]) {
+                child = right;
+            }
+            if (size <= sizes[child]) {
+                break;
+            }
+            sizes[i] = sizes[child];
+            paths[i] = paths[child];
+            i = child;
+        }
+        sizes[i] = size;
+        paths[i] = path;
+    }
+}
@@ -0,0 +1,644 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Iterative depth-first walk of a directory tree.
+ * The directories being walked are kept on an explicit stack stored in
+ * arrays that grow as needed and are reused from one walk to the next, so
+ * the depth of the tree is only limited by the heap and not by the thread
+ * stack. Each directory on the stack is read lazily through an open
+ * DirectoryStream, one entry at a time, so a directory with millions of
+ * entries costs the buffer of its stream instead of an array of all its
+ * entries. Past MAX_OPEN_DIRECTORIES levels, the deeper directories are
+ * read at once and closed, so a very deep tree does not run out of file
+ * descriptors. Entries are visited in the order the file system lists
+ * them, like listFiles: a directory is visited before its entries
+ * (pre-order) and left after them (post-order).
+ * A visitor can give the entries of a directory it already knows, from an
+ * index of a previous scan, which are then walked without listing it.
+ * Symbolic links are handled by a SymlinkPolicy. When links are followed,
+ * the file key of every directory is checked against a hash set of the
+ * directories being walked (FOLLOW) or already walked (FOLLOW_ONCE), so
+ * cycles are cut at the cost of one lookup per directory.
+ * A walk can be given a PathFilter: excluded entries are skipped before
+ * their type is read, so excluded directories are never listed.
+ * In single file system mode the device of the root is recorded and a
+ * directory on another device is reported to the visitor as a mount point
+ * instead of being walked, at the cost of one attribute read per directory.
+ * An IoThrottle, when set, is charged one metadata operation for every
+ * entry visited and one for every directory listed.
+ * ScanMetrics, when set, count a STAT for the type read of every entry
+ * and a LIST for every directory opened, in the recorder of the walking
+ * thread taken once per walk. The counts are kept in plain fields and
+ * added to the recorder, with the current directory, once every
+ * PUBLISH_INTERVAL directories and at the end of the walk, so the metrics
+ * cost nothing per entry and one decrement per directory; the listing of
+ * the published directory is the one timed, the type reads are not.
+ * A directory that cannot be opened, or whose listing stops with an
+ * error, is reported to the visitor with the exception, which tells the
+ * cause that listFiles returning null used to hide.
+ * This class is not thread-safe, each walker runs one walk at a time.
+ */
+class TreeWalker {
+
+    private static final int INITIAL_DEPTH = 64;
+    /** directories between two publications to the metrics */
+    static final int PUBLISH_INTERVAL = ScanMetrics.SAMPLE_INTERVAL;
+    /** directories kept open at once, the deeper ones are read eagerly */
+    static final int MAX_OPEN_DIRECTORIES = 256;
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private File[] directories = new File[INITIAL_DEPTH];
+    private Listing[] listings = new Listing[INITIAL_DEPTH];
+    private Object[] keys = new Object[INITIAL_DEPTH];
+    private int top = -1;
+    private int openDirectories;
+    private SymlinkPolicy symlinkPolicy = SymlinkPolicy.FOLLOW;
+    private final Set<Object> directoryKeys = new HashSet<>();
+    /** directoryKeys, or the keys shared by several walks of the current walk */
+    private Set<Object> walkKeys = directoryKeys;
+    /** filter of the current walk bound to its root, or null */
+    private PathFilter filter;
+    private boolean singleFileSystem;
+    /** limits the metadata operations of the walks, or null */
+    private IoThrottle throttle;
+    /** device of the root of the current walk, null to cross file systems */
+    private Object rootDevice;
+    /** counts the operations of the walks, or null */
+    private ScanMetrics metrics;
+    /** recorder of the thread of the current walk, null without metrics */
+    private ScanMetrics.Recorder recorder;
+    /** type reads of the current walk not yet added to the recorder */
+    private long statCount;
+    /** listings of the current walk not yet added to the recorder */
+    private long listCount;
+    /** directories opened before the next publication to the metrics */
+    private int untilPublished;
+
+    /**
+     * Remaining entries of a directory on the stack
+     */
+    private static final class Listing {
+        /** the open stream, null if the entries were read eagerly */
+        final DirectoryStream<Path> stream;
+        final Iterator<Path> entries;
+        /** the error that stopped the listing, or null */
+        Exception failure;
+
+        Listing(DirectoryStream<Path> stream, Iterator<Path> entries, Exception failure) {
+            this.stream = stream;
+            this.entries = entries;
+            this.failure = failure;
+        }
+
+        /**
+         * Reads the next entry
+         * @return the entry, or null at the end or if the directory cannot be read further
+         */
+        Path next() {
+            try {
+                return entries.hasNext() ? entries.next() : null;
+            } catch (DirectoryIteratorException e) {
+                failure = e.getCause();
+                return null;
+            }
+        }
+
+        void close() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Callbacks of a walk
+     */
+    interface Visitor {
+        /**
+         * Called for an entry for which isFile is true
+         * @param file the file
+         */
+        void visitFile(File file);
+
+        /**
+         * Called for any other entry before it is listed
+         * @param directory the entry
+         * @return true to list the entry and walk its contents, false to skip it
+         */
+        boolean preVisitDirectory(File directory);
+
+        /**
+         * Called after preVisitDirectory returned true, to walk entries
+         * the visitor already knows instead of listing the directory
+         * @param directory the entry
+         * @return the entries to walk, or null to list the directory
+         */
+        default Iterator<Path> entries(File directory) {
+            return null;
+        }
+
+        /**
+         * Called after all the contents of a listed entry were walked
+         * @param directory the entry
+         */
+        default void postVisitDirectory(File directory) {
+        }
+
+        /**
+         * Called when an entry cannot be accessed
+         * @param file the entry
+         * @param e the exception thrown while accessing it
+         */
+        default void visitFailed(File file, SecurityException e) {
+        }
+
+        /**
+         * Called before postVisitDirectory when a directory cannot be
+         * listed, or its listing stopped with an error
+         * @param directory the directory
+         * @param e the exception, which tells the cause
+         */
+        default void listFailed(File directory, Exception e) {
+        }
+
+        /**
+         * Called instead of preVisitDirectory for a directory on another
+         * file system, in single file system mode
+         * @param directory the mount point, which is not walked
+         */
+        default void visitMountPoint(File directory) {
+        }
+    }
+
+    /**
+     * Setter for symlinkPolicy
+     * @param symlinkPolicy how the next walks treat symbolic links
+     */
+    void setSymlinkPolicy(SymlinkPolicy symlinkPolicy) {
+        this.symlinkPolicy = symlinkPolicy;
+    }
+
+    /**
+     * Setter for singleFileSystem
+     * @param singleFileSystem true to stop the next walks at mount points
+     */
+    void setSingleFileSystem(boolean singleFileSystem) {
+        this.singleFileSystem = singleFileSystem;
+    }
+
+    /**
+     * Setter for throttle
+     * @param throttle the limits of the next walks, or null for no limit
+     */
+    void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Setter for metrics
+     * @param metrics the metrics of the next walks, or null
+     */
+    void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Walks the tree under root
+     * @param root the file or directory to walk
+     * @param visitor the callbacks of the walk
+     */
+    void walk(File root, Visitor visitor) {
+        walk(root, visitor, null);
+    }
+
+    /**
+     * Walks the tree under root, skipping the entries excluded by filter
+     * @param root the file or directory to walk
+     * @param visitor the callbacks of the walk
+     * @param filter the include and exclude patterns, or null to visit every entry
+     */
+    void walk(File root, Visitor visitor, PathFilter filter) {
+        walk(root, visitor, filter, directoryKeys);
+    }
+
+    /**
+     * Walks the tree under root, skipping the directories whose file key
+     * is in walked and adding the others, so that the walks sharing walked
+     * visit every directory at most once, whatever the symlink policy,
+     * unless links are skipped. The key of root may already be in walked.
+     * @param root the file or directory to walk
+     * @param visitor the callbacks of the walk
+     * @param filter the include and exclude patterns, or null to visit every entry
+     * @param walked the file keys of the directories already walked
+     */
+    void walk(File root, Visitor visitor, PathFilter filter, Set<Object> walked) {
+        this.walkKeys = walked;
+        this.filter = filter == null ? null : filter.bind(root.getPath());
+        this.rootDevice = singleFileSystem ? device(root) : null;
+        this.recorder = metrics == null ? null : metrics.recorder();
+        // the root is published first
+        this.untilPublished = 1;
+        try {
+            visit(root, visitor);
+            while (top >= 0) {
+                Listing listing = listings[top];
+                Path entry = listing == null ? null : listing.next();
+                if (entry == null) {
+                    File directory = directories[top];
+                    Exception failure = listing == null ? null : listing.failure;
+                    pop();
+                    if (failure != null && isListingFailure(directory, failure)) {
+                        visitor.listFailed(directory, failure);
+                    }
+                    visitor.postVisitDirectory(directory);
+                } else {
+                    visit(entry.toFile(), visitor);
+                }
+            }
+        } finally {
+            while (top >= 0) {
+                pop();
+            }
+            directoryKeys.clear();
+            this.walkKeys = directoryKeys;
+            this.filter = null;
+            this.rootDevice = null;
+            flushCounts();
+            this.recorder = null;
+        }
+    }
+
+    /**
+     * Visits one entry and pushes it if it is a directory to walk
+     */
+    private void visit(File file, Visitor visitor) {
+        // the root of the walk is never filtered
+        boolean filtered = filter != null && top >= 0;
+        if (filtered && filter.excludes(file.getPath(), file.getName())) {
+            return;
+        }
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        try {
+            if (symlinkPolicy == SymlinkPolicy.SKIP) {
+                // like the filter, the root is walked even if it is a link
+                if (top >= 0 && isSymbolicLink(file)) {
+                    return;
+                }
+                if (readType(file)) {
+                    if (!filtered || filter.includes(file.getPath(), file.getName())) {
+                        visitor.visitFile(file);
+                    }
+                } else if (isMountPoint(file)) {
+                    visitor.visitMountPoint(file);
+                } else if (visitor.preVisitDirectory(file)) {
+                    push(file, open(file, visitor), null);
+                }
+                return;
+            }
+            if (readType(file)) {
+                if (!filtered || filter.includes(file.getPath(), file.getName())) {
+                    visitor.visitFile(file);
+                }
+                return;
+            }
+            if (isMountPoint(file)) {
+                visitor.visitMountPoint(file);
+                return;
+            }
+            Object key = fileKey(file);
+            if (key != null && !walkKeys.add(key) && top >= 0) {
+                // a directory being walked (FOLLOW) or already walked (FOLLOW_ONCE or shared keys)
+                return;
+            }
+            if (visitor.preVisitDirectory(file)) {
+                push(file, open(file, visitor), key);
+            } else if (key != null && isCycleOnly()) {
+                directoryKeys.remove(key);
+            }
+        } catch (SecurityException e) {
+            visitor.visitFailed(file, e);
+        }
+    }
+
+    /**
+     * Opens a directory, charging the throttle, unless the visitor gives
+     * its entries
+     * @param directory the directory
+     * @param visitor the callbacks of the walk
+     * @return its entries, with no entries and the failure if it cannot be listed
+     */
+    private Listing open(File directory, Visitor visitor) {
+        boolean published = --untilPublished == 0 && publish(directory);
+        Iterator<Path> known = visitor.entries(directory);
+        if (known != null) {
+            return new Listing(null, known, null);
+        }
+        if (throttle != null) {
+            throttle.acquireMetadataOps(1);
+        }
+        DirectoryStream<Path> stream;
+        try {
+            stream = published ? openTimed(directory) : openCounted(directory);
+        } catch (IOException | InvalidPathException e) {
+            return new Listing(null, Collections.emptyIterator(), e);
+        }
+        if (openDirectories < MAX_OPEN_DIRECTORIES) {
+            openDirectories++;
+            return new Listing(stream, stream.iterator(), null);
+        }
+        List<Path> entries = new ArrayList<>();
+        Exception failure = null;
+        try (DirectoryStream<Path> s = stream) {
+            for (Path entry : s) {
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (DirectoryIteratorException e) {
+            // keep the entries read so far
+            failure = e.getCause();
+        }
+        return new Listing(null, entries.iterator(), failure);
+    }
+
+    /**
+     * Reads the type of an entry, counting a STAT
+     * @return true if file is a regular file
+     */
+    private boolean readType(File file) {
+        statCount++;
+        return file.isFile();
+    }
+
+    /**
+     * Opens a directory, counting a LIST
+     */
+    private DirectoryStream<Path> openCounted(File directory) throws IOException {
+        listCount++;
+        return openDirectory(directory);
+    }
+
+    /**
+     * Opens a published directory, timing its LIST in the recorder
+     */
+    private DirectoryStream<Path> openTimed(File directory) throws IOException {
+        long start = recorder.time();
+        try {
+            return openDirectory(directory);
+        } finally {
+            recorder.record(ScanOperation.LIST, start);
+        }
+    }
+
+    /**
+     * Adds the counts to the recorder and makes directory the current
+     * directory of the metrics
+     * @param directory the directory being opened
+     * @return true if the metrics were updated, false without metrics
+     */
+    private boolean publish(File directory) {
+        if (recorder == null) {
+            untilPublished = Integer.MAX_VALUE;
+            statCount = 0;
+            listCount = 0;
+            return false;
+        }
+        untilPublished = PUBLISH_INTERVAL;
+        flushCounts();
+        metrics.enterDirectory(directory);
+        return true;
+    }
+
+    /**
+     * Adds the counts not yet published to the recorder, if any
+     */
+    private void flushCounts() {
+        if (recorder != null) {
+            recorder.count(ScanOperation.STAT, statCount);
+            recorder.count(ScanOperation.LIST, listCount);
+        }
+        statCount = 0;
+        listCount = 0;
+    }
+
+    /**
+     * Tells if an entry below the root is on another device than the root,
+     * only in single file system mode
+     */
+    private boolean isMountPoint(File file) {
+        if (rootDevice == null || top < 0) {
+            return false;
+        }
+        Object device = device(file);
+        return device != null && !device.equals(rootDevice);
+    }
+
+    /**
+     * Pushes a directory and its listing, growing the stack if it is full
+     */
+    private void push(File directory, Listing listing, Object key) {
+        if (++top == directories.length) {
+            int capacity = directories.length * 2;
+            directories = Arrays.copyOf(directories, capacity);
+            listings = Arrays.copyOf(listings, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        directories[top] = directory;
+        listings[top] = listing;
+        keys[top] = key;
+    }
+
+    /**
+     * Pops the top directory, closing its listing
+     */
+    private void pop() {
+        Listing listing = listings[top];
+        if (listing != null && listing.stream != null) {
+            listing.close();
+            openDirectories--;
+        }
+        if (keys[top] != null && isCycleOnly()) {
+            directoryKeys.remove(keys[top]);
+        }
+        directories[top] = null;
+        listings[top] = null;
+        keys[top] = null;
+        top--;
+    }
+
+    /**
+     * Tells if the keys of the current walk only hold the directories
+     * being walked, FOLLOW without shared keys
+     */
+    private boolean isCycleOnly() {
+        return symlinkPolicy == SymlinkPolicy.FOLLOW && walkKeys == directoryKeys;
+    }
+
+    /**
+     * Reads the file key of a directory, following links
+     * @param file the directory
+     * @return the file key, or null if it is not available
+     */
+    static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the device of a file, following links: the unix device number
+     * when the file system has unix attributes, its FileStore otherwise
+     * @param path the file
+     * @return an object equal for the files of the same device, or null if
+     * it cannot be read
+     */
+    static Object device(Path path) {
+        try {
+            if (UNIX_ATTRIBUTES) {
+                return Files.getAttribute(path, "unix:dev");
+            }
+            return Files.getFileStore(path);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the device of a file, following links
+     * @param file the file
+     * @return an object equal for the files of the same device, or null if
+     * it cannot be read
+     */
+    static Object device(File file) {
+        try {
+            return device(file.toPath());
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens a directory stream on an entry that is not a regular file.
+     * Opening a fifo for reading blocks until it has a writer, so an entry
+     * that is not a directory is rejected first, like listFiles does
+     * @param directory the entry
+     * @return the open stream
+     * @throws NotDirectoryException if the entry is not a directory or is a
+     * link to a missing target
+     * @throws NoSuchFileException if the entry no longer exists
+     * @throws IOException if the directory cannot be opened
+     */
+    static DirectoryStream<Path> openDirectory(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            if (!directory.exists() && !isSymbolicLink(directory)) {
+                throw new NoSuchFileException(directory.getPath());
+            }
+            throw new NotDirectoryException(directory.getPath());
+        }
+        return Files.newDirectoryStream(directory.toPath());
+    }
+
+    /**
+     * Opens a directory like openDirectory, counting a LIST in a recorder
+     * @param directory the entry
+     * @param recorder the recorder of the calling thread, or null
+     * @return the open stream
+     * @throws IOException if the directory cannot be opened
+     */
+    static DirectoryStream<Path> openDirectory(File directory, ScanMetrics.Recorder recorder) throws IOException {
+        if (recorder == null) {
+            return openDirectory(directory);
+        }
+        long start = recorder.start();
+        try {
+            return openDirectory(directory);
+        } finally {
+            recorder.record(ScanOperation.LIST, start);
+        }
+    }
+
+    /**
+     * Reads the type of an entry, counting a STAT in a recorder
+     * @param file the entry
+     * @param recorder the recorder of the calling thread, or null
+     * @return true if file is a regular file
+     */
+    static boolean isFile(File file, ScanMetrics.Recorder recorder) {
+        if (recorder == null) {
+            return file.isFile();
+        }
+        long start = recorder.start();
+        try {
+            return file.isFile();
+        } finally {
+            recorder.record(ScanOperation.STAT, start);
+        }
+    }
+
+    /**
+     * Tells if the failure to list an entry is an error: an entry that
+     * is not a directory (a fifo, a socket, a device) or a link to a
+     * missing target is not listed, like listFiles returning null for it,
+     * without being an error
+     * @param entry the entry that could not be listed
+     * @param e the exception thrown while listing it
+     * @return true if the failure must be reported
+     */
+    static boolean isListingFailure(File entry, Exception e) {
+        if (e instanceof NotDirectoryException) {
+            return false;
+        }
+        return !(e instanceof NoSuchFileException && isSymbolicLink(entry));
+    }
+
+    /**
+     * Tells if a directory has no entries, reading at most one of them
+     * @param directory the directory
+     * @return true if the directory can be listed and is empty
+     */
+    static boolean isEmptyDirectory(File directory) {
+        try (DirectoryStream<Path> stream = openDirectory(directory)) {
+            return !stream.iterator().hasNext();
+        } catch (IOException | InvalidPathException | DirectoryIteratorException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells if a file is a symbolic link
+     * @param file the file
+     * @return true if file is a symbolic link
+     */
+    static boolean isSymbolicLink(File file) {
+        try {
+            return Files.isSymbolicLink(file.toPath());
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+}
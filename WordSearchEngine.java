@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the occurrences of a word in files on a bounded thread pool.
+ * The word is encoded once and searched in the raw bytes of the file with
+ * the Boyer-Moore-Horspool algorithm. Files are read through direct
+ * buffers owned by each thread, a small one for small files and a larger
+ * one for large files, so the content is never decoded to Strings and a
+ * search of any number of files uses a fixed amount of memory: mapping
+ * the large files would leave their mappings, and on some platforms their
+ * file handles, alive until the garbage collector unmaps them.
+ * The counts are the same as reading the file line by line with a
+ * FileReader: overlapping occurrences are counted and an occurrence never
+ * spans a line break. When the default charset or the word does not allow
+ * an exact byte search, the line by line count is used instead.
+ * An IoThrottle, when given, is charged one metadata operation for every
+ * file opened and the bytes of every read; while it limits the bytes,
+ * large files are read through the small buffer, so that the limit
+ * applies to small blocks.
+ * ScanMetrics, when given, time a READ for every file searched and count
+ * the bytes searched.
+ */
+class WordSearchEngine implements AutoCloseable {
+
+    /** files of at least this size are read through the large buffer */
+    private static final long LARGE_FILE_THRESHOLD = 1024 * 1024;
+    /** size of the direct buffer used to read small files */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** size of the direct buffer used to read large files */
+    private static final int LARGE_READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final String word;
+    private final byte[] pattern;
+    private final int[] shift;
+    private final ThreadPoolExecutor pool;
+    private final ThreadLocal<ByteBuffer> readBuffer;
+    private final ThreadLocal<ByteBuffer> largeReadBuffer;
+    /** limits the files opened and the bytes read, or null */
+    private final IoThrottle throttle;
+    /** counts the files and the bytes read, or null */
+    private final ScanMetrics metrics;
+
+    /**
+     * Constructor
+     * @param word the word to count
+     * @param threads the number of threads of the pool
+     */
+    WordSearchEngine(String word, int threads) {
+        this(word, threads, null, null);
+    }
+
+    /**
+     * Constructor
+     * @param word the word to count
+     * @param threads the number of threads of the pool
+     * @param throttle the limits shared by the threads, or null for no limit
+     * @param metrics the metrics of the reads, or null
+     */
+    WordSearchEngine(String word, int threads, IoThrottle throttle, ScanMetrics metrics) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid parallelism");
+        }
+        this.word = word;
+        this.pattern = isByteSearchable(word) ? word.getBytes(Charset.defaultCharset()) : null;
+        this.shift = pattern == null ? null : shiftTable(pattern);
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        int size = pattern == null ? 0 : Math.max(READ_BUFFER_SIZE, pattern.length * 2);
+        this.readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(size));
+        int largeSize = pattern == null ? 0 : Math.max(LARGE_READ_BUFFER_SIZE, pattern.length * 2);
+        this.largeReadBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(largeSize));
+        this.throttle = throttle;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Counts the word in file on the pool
+     * @param file the file to search
+     * @return the future number of occurrences, 0 if the file cannot be read
+     */
+    Future<Integer> submit(File file) {
+        return pool.submit(() -> count(file));
+    }
+
+    /**
+     * Counts the word in file on the calling thread
+     * @param file the file to search
+     * @return the number of occurrences, 0 if the file cannot be read
+     */
+    int count(File file) {
+        ScanMetrics.Recorder recorder = metrics == null ? null : metrics.recorder();
+        long start = recorder == null ? 0 : recorder.time();
+        try {
+            if (throttle != null) {
+                throttle.acquireMetadataOps(1);
+            }
+            if (pattern == null) {
+                long length = file.length();
+                if (throttle != null) {
+                    throttle.acquireBytes(length);
+                }
+                int count = countLines(file, word);
+                if (recorder != null) {
+                    recorder.addBytesRead(length);
+                }
+                return count;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                boolean large = size >= LARGE_FILE_THRESHOLD && (throttle == null || !throttle.limitsBytes());
+                int count = countRead(channel, large ? largeReadBuffer.get() : readBuffer.get());
+                if (recorder != null) {
+                    recorder.addBytesRead(size);
+                }
+                return count;
+            }
+        } catch (IOException | SecurityException e) {
+            return 0;
+        } finally {
+            if (recorder != null) {
+                recorder.record(ScanOperation.READ, start);
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of files waiting for a thread
+     * @return the number of files submitted and not started
+     */
+    int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Counts the word in a file read through a direct buffer of the
+     * thread. The last pattern.length - 1 bytes of each read are kept for
+     * the next one so that an occurrence across two reads is found.
+     */
+    private int countRead(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int count = 0;
+        int keep = pattern.length - 1;
+        boolean eof = false;
+        while (!eof) {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    eof = true;
+                    break;
+                }
+                if (throttle != null) {
+                    throttle.acquireBytes(read);
+                }
+            }
+            buffer.flip();
+            int limit = buffer.limit();
+            count += search(buffer, limit, limit);
+            if (!eof) {
+                buffer.position(limit - keep);
+                buffer.compact();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search in buffer[0, end)
+     * @param buffer the bytes to search
+     * @param end the end of the bytes to search
+     * @param startLimit only occurrences starting before this index are counted
+     * @return the number of occurrences, overlapping ones included
+     */
+    private int search(ByteBuffer buffer, int end, int startLimit) {
+        int m = pattern.length;
+        int last = m - 1;
+        int count = 0;
+        int i = 0;
+        while (i <= end - m && i < startLimit) {
+            byte b = buffer.get(i + last);
+            if (b == pattern[last]) {
+                int j = last - 1;
+                while (j >= 0 && buffer.get(i + j) == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    count++;
+                    i++;
+                    continue;
+                }
+            }
+            i += shift[b & 0xFF];
+        }
+        return count;
+    }
+
+    /**
+     * Builds the Horspool bad character table
+     * @param pattern the encoded word
+     * @return the shift for every byte value
+     */
+    private static int[] shiftTable(byte[] pattern) {
+        int[] table = new int[256];
+        Arrays.fill(table, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            table[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+        return table;
+    }
+
+    /**
+     * A byte search gives the same count as the line by line search when
+     * the default charset encodes a character as a self-synchronizing byte
+     * sequence, and the word is not empty and has no line break and no
+     * replacement character, which the reader produces for malformed input
+     * @param word the word to count
+     * @return true if the raw bytes can be searched
+     */
+    private static boolean isByteSearchable(String word) {
+        Charset charset = Charset.defaultCharset();
+        boolean compatible = charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        return compatible && !word.isEmpty() && word.indexOf('\n') == -1 && word.indexOf('\r') == -1
+                && word.indexOf('\uFFFD') == -1 && charset.newEncoder().canEncode(word);
+    }
+
+    /**
+     * Counts the word line by line with a FileReader
+     * @param file the file to search
+     * @param word the word to count
+     * @return the number of occurrences
+     */
+    static int countLines(File file, String word) throws IOException {
+        int count = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int index = -1;
+                while ((index = line.indexOf(word, index + 1)) != -1) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs FileHotPathBenchmark with the GC profiler and fails if the per-file
+ * path allocates. Run explicitly by the jmhAllocationCheck task, which is
+ * not part of check.
+ */
+public final class AllocationCheck {
+
+    /** highest allocation per file accepted, the profiler reports a few hundredths of a byte for none */
+    static final double MAX_BYTES_PER_OP = 1.0;
+
+    private AllocationCheck() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FileHotPathBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        boolean failed = results.isEmpty();
+        for (RunResult result : results) {
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            String benchmark = result.getParams().getBenchmark() + " " + result.getParams().getParam("concurrent");
+            if (allocation == null || !(allocation.getScore() <= MAX_BYTES_PER_OP)) {
+                System.err.println(benchmark + ": allocates "
+                        + (allocation == null ? "an unknown amount" : allocation.getScore() + " B") + " per file");
+                failed = true;
+            } else {
+                System.out.println(benchmark + ": " + allocation.getScore() + " B per file");
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
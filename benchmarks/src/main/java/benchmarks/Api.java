@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Method handles on the public API of DirectoryManipulation.
+ * The project classes are in the default package, which cannot be imported
+ * from a named package (and JMH requires benchmarks to have one), so the
+ * benchmarks reach them through handles resolved once at class load time.
+ * The handles are adapted to Object so they can be called with invokeExact.
+ * The per-file methods of the statistics and PathFilter.globToRegex are
+ * package-private; the benchmarks are in the same unnamed module, which
+ * opens every package, so they are reached through a private lookup.
+ */
+final class Api {
+
+    static final Class<?> MANIPULATION = load("DirectoryManipulation");
+    static final Class<?> BACKEND = load("ScanBackend");
+
+    /** () -> DirectoryManipulation */
+    static final MethodHandle NEW_MANIPULATION;
+    /** (DirectoryManipulation, String) -> long */
+    static final MethodHandle CALCULATE_SIZE;
+    /** (DirectoryManipulation, String, int) -> long */
+    static final MethodHandle CALCULATE_SIZE_PARALLEL;
+    /** (DirectoryManipulation, ScanBackend) -> void */
+    static final MethodHandle SET_SCAN_BACKEND;
+    /** () -> ScanMetrics */
+    static final MethodHandle NEW_METRICS;
+    /** (DirectoryManipulation, ScanMetrics) -> void */
+    static final MethodHandle SET_METRICS;
+    /** (DirectoryManipulation, String) -> DirectoryStatistics */
+    static final MethodHandle ANALYZE;
+    /** (DirectoryManipulation, String, String) -> boolean */
+    static final MethodHandle FIND_FILE;
+    /** (DirectoryManipulation, String) -> boolean */
+    static final MethodHandle CLEAN;
+    /** (DirectoryManipulation, String, String) -> boolean */
+    static final MethodHandle FIND_WORD;
+    /** () -> DirectoryStatistics */
+    static final MethodHandle NEW_STATISTICS;
+    /** () -> ConcurrentDirectoryStatistics */
+    static final MethodHandle NEW_CONCURRENT_STATISTICS;
+    /** (DirectoryStatistics, String, long, long) -> void */
+    static final MethodHandle ADD_FILE_BY_PATH;
+    /** (DirectoryStatistics, long) -> boolean */
+    static final MethodHandle IS_LARGE_FILE_CANDIDATE;
+    /** (DirectoryStatistics, long, String) -> void */
+    static final MethodHandle UPDATE_LARGEST_FILE;
+    /** (String) -> String */
+    static final MethodHandle GLOB_TO_REGEX;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            NEW_MANIPULATION = lookup.findConstructor(MANIPULATION, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            CALCULATE_SIZE = virtual(lookup, "calculateDirectorySize", long.class, String.class);
+            CALCULATE_SIZE_PARALLEL = virtual(lookup, "calculateDirectorySizeParallel", long.class, String.class, int.class);
+            SET_SCAN_BACKEND = lookup.findVirtual(MANIPULATION, "setScanBackend", MethodType.methodType(void.class, BACKEND))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            Class<?> metrics = load("ScanMetrics");
+            NEW_METRICS = lookup.findConstructor(metrics, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            SET_METRICS = lookup.findVirtual(MANIPULATION, "setMetrics", MethodType.methodType(void.class, metrics))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            ANALYZE = lookup.findVirtual(MANIPULATION, "analyzeDirectory", MethodType.methodType(load("DirectoryStatistics"), String.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, String.class));
+            FIND_FILE = virtual(lookup, "findFile", boolean.class, String.class, String.class);
+            CLEAN = virtual(lookup, "cleanDirectory", boolean.class, String.class);
+            FIND_WORD = virtual(lookup, "findWord", boolean.class, String.class, String.class);
+            Class<?> statistics = load("DirectoryStatistics");
+            MethodHandles.Lookup packageLookup = MethodHandles.privateLookupIn(statistics, MethodHandles.lookup());
+            NEW_STATISTICS = lookup.findConstructor(statistics, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            NEW_CONCURRENT_STATISTICS = lookup.findConstructor(load("ConcurrentDirectoryStatistics"), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            ADD_FILE_BY_PATH = packageLookup.findVirtual(statistics, "addFileByPath",
+                    MethodType.methodType(void.class, String.class, long.class, long.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, long.class, long.class));
+            IS_LARGE_FILE_CANDIDATE = packageLookup.findVirtual(statistics, "isLargeFileCandidate",
+                    MethodType.methodType(boolean.class, long.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, long.class));
+            UPDATE_LARGEST_FILE = packageLookup.findVirtual(statistics, "updateLargestFile",
+                    MethodType.methodType(void.class, long.class, String.class))
+                    .asType(MethodType.methodType(void.class, Object.class, long.class, String.class));
+            GLOB_TO_REGEX = packageLookup.findStatic(load("PathFilter"), "globToRegex",
+                    MethodType.methodType(String.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Api() {
+    }
+
+    /**
+     * Finds a public method of DirectoryManipulation and adapts the receiver to Object
+     */
+    private static MethodHandle virtual(MethodHandles.Lookup lookup, String name, Class<?> returnType, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        MethodHandle handle = lookup.findVirtual(MANIPULATION, name, MethodType.methodType(returnType, parameterTypes));
+        return handle.asType(handle.type().changeParameterType(0, Object.class));
+    }
+
+    /**
+     * Loads a class of the project by its name
+     */
+    static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Looks up a constant of the ScanBackend enum
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object backend(String name) {
+        return Enum.valueOf((Class) BACKEND, name);
+    }
+}
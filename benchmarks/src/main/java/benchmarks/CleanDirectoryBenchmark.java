@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of one cleanDirectory call. cleanDirectory deletes what it measures,
+ * so a fresh tree with empty files and directories is generated before every
+ * invocation and the benchmark runs in single-shot mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CleanDirectoryBenchmark {
+
+    @Param({"500"})
+    public int directories;
+
+    @Param({"20"})
+    public int filesPerDirectory;
+
+    private Path root;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Invocation)
+    public void createTree() throws IOException {
+        root = SyntheticTree.createWithEmptyEntries(directories, filesPerDirectory);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTree() throws IOException {
+        SyntheticTree.delete(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void restore() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public boolean cleanDirectory() throws Throwable {
+        return (boolean) Api.CLEAN.invokeExact((Object) Api.NEW_MANIPULATION.invokeExact(), root.toString());
+    }
+}
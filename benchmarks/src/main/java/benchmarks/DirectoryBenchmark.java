@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the read-only operations of DirectoryManipulation on
+ * synthetic trees. A new DirectoryManipulation is used for every call
+ * because its statistics accumulate between calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryBenchmark {
+
+    @Param({"DEEP", "WIDE", "TINY", "HUGE"})
+    public SyntheticTree.Shape shape;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private Path root;
+    private String rootPath;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = SyntheticTree.create(shape);
+        rootPath = root.toString();
+        // findFile and findWord print every match, keep it out of the results
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public long calculateDirectorySize() throws Throwable {
+        return (long) Api.CALCULATE_SIZE.invokeExact(newManipulation(), rootPath);
+    }
+
+    @Benchmark
+    public long calculateDirectorySizeNio() throws Throwable {
+        Object manipulation = newManipulation();
+        Api.SET_SCAN_BACKEND.invokeExact(manipulation, Api.backend("NIO"));
+        return (long) Api.CALCULATE_SIZE.invokeExact(manipulation, rootPath);
+    }
+
+    @Benchmark
+    public long calculateDirectorySizeParallel() throws Throwable {
+        return (long) Api.CALCULATE_SIZE_PARALLEL.invokeExact(newManipulation(), rootPath, parallelism);
+    }
+
+    @Benchmark
+    public Object analyzeDirectory() throws Throwable {
+        return (Object) Api.ANALYZE.invokeExact(newManipulation(), rootPath);
+    }
+
+    @Benchmark
+    public boolean findFile() throws Throwable {
+        return (boolean) Api.FIND_FILE.invokeExact(newManipulation(), rootPath, SyntheticTree.TARGET);
+    }
+
+    @Benchmark
+    public boolean findWord() throws Throwable {
+        return (boolean) Api.FIND_WORD.invokeExact(newManipulation(), rootPath, SyntheticTree.WORD);
+    }
+
+    private static Object newManipulation() throws Throwable {
+        return (Object) Api.NEW_MANIPULATION.invokeExact();
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The work the size scanners do for every file once its path and size are
+ * known: the counts, the totals, the extension lookup and the largest
+ * file check. In steady state it must allocate nothing; AllocationCheck
+ * runs this benchmark with the GC profiler and fails when
+ * gc.alloc.rate.norm is above the noise of the profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class FileHotPathBenchmark {
+
+    private static final int PATHS = 1024;
+    private static final String[] EXTENSIONS = {"txt", "log", "java", "class", "json", "xml", "png", "dat", "tar.gz", ""};
+
+    @Param({"false", "true"})
+    public boolean concurrent;
+
+    private final String[] paths = new String[PATHS];
+    private final long[] sizes = new long[PATHS];
+    private Object stats;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < PATHS; i++) {
+            String extension = EXTENSIONS[i % EXTENSIONS.length];
+            String name = extension.isEmpty() ? "README" + i : "file" + i + "." + extension;
+            paths[i] = "/data/project/dir" + (i % 37) + "/sub.d/" + name;
+            sizes[i] = random.nextLong(1 << 20);
+        }
+        stats = concurrent
+                ? (Object) Api.NEW_CONCURRENT_STATISTICS.invokeExact()
+                : (Object) Api.NEW_STATISTICS.invokeExact();
+    }
+
+    @Benchmark
+    public long addFile() throws Throwable {
+        int i = next++ & (PATHS - 1);
+        String path = paths[i];
+        long size = sizes[i];
+        Api.ADD_FILE_BY_PATH.invokeExact(stats, path, size, size);
+        if ((boolean) Api.IS_LARGE_FILE_CANDIDATE.invokeExact(stats, size)) {
+            // the scanners build the absolute path here, only for the candidates
+            Api.UPDATE_LARGEST_FILE.invokeExact(stats, size, path);
+        }
+        return size;
+    }
+}
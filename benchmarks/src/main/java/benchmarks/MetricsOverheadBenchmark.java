@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of ScanMetrics on the scans of DirectoryBenchmark: the same scans
+ * of trees of many small entries with and without metrics. The scores of
+ * metrics=true must stay within 2% of metrics=false, which the scores of
+ * separate forks cannot resolve: MetricsOverheadCheck enforces it in
+ * check from paired runs in one JVM. The metrics are shared by all the
+ * calls, like metrics registered once for a process.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class MetricsOverheadBenchmark {
+
+    @Param({"WIDE", "TINY"})
+    public SyntheticTree.Shape shape;
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private Path root;
+    private String rootPath;
+    private Object scanMetrics;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        root = SyntheticTree.create(shape);
+        rootPath = root.toString();
+        scanMetrics = metrics ? (Object) Api.NEW_METRICS.invokeExact() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public long calculateDirectorySize() throws Throwable {
+        return (long) Api.CALCULATE_SIZE.invokeExact(newManipulation(), rootPath);
+    }
+
+    @Benchmark
+    public long calculateDirectorySizeNio() throws Throwable {
+        Object manipulation = newManipulation();
+        Api.SET_SCAN_BACKEND.invokeExact(manipulation, Api.backend("NIO"));
+        return (long) Api.CALCULATE_SIZE.invokeExact(manipulation, rootPath);
+    }
+
+    @Benchmark
+    public long calculateDirectorySizeParallel() throws Throwable {
+        return (long) Api.CALCULATE_SIZE_PARALLEL.invokeExact(newManipulation(), rootPath, parallelism);
+    }
+
+    private Object newManipulation() throws Throwable {
+        Object manipulation = (Object) Api.NEW_MANIPULATION.invokeExact();
+        if (scanMetrics != null) {
+            Api.SET_METRICS.invokeExact(manipulation, scanMetrics);
+        }
+        return manipulation;
+    }
+}
@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Runs the scans of MetricsOverheadBenchmark with and without ScanMetrics
+ * on the WIDE tree, which has the most directories per file, and fails if
+ * the metrics may make a scan more than 2% slower. Run by the
+ * jmhMetricsOverheadCheck task, which is not part of check: like jmh, it
+ * is run explicitly, on a quiet machine.
+ * From one JMH fork to the next the score of a file system scan moves by
+ * 5 to 10%, more than the bound, so the check does not compare two forks:
+ * it alternates the two configurations in one JVM on the same tree, in
+ * rounds ordered without, with, with, without so that a linear drift
+ * cancels, and takes the median of the ratios of the rounds, which the
+ * slow rounds of a busy machine do not move, with its 95% confidence
+ * interval. A scan fails when the upper end of the interval is above 2%,
+ * so a pass shows the overhead is below the bound.
+ */
+public final class MetricsOverheadCheck {
+
+    /** highest upper end of the confidence interval of the overhead accepted */
+    static final double MAX_OVERHEAD = 0.02;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 301;
+    private static final int PARALLELISM = 2;
+
+    /**
+     * The scans measured
+     */
+    private enum Scan {
+        FILE, NIO, PARALLEL;
+
+        long run(Object manipulation, String root) throws Throwable {
+            switch (this) {
+                case NIO:
+                    Api.SET_SCAN_BACKEND.invokeExact(manipulation, Api.backend("NIO"));
+                    return (long) Api.CALCULATE_SIZE.invokeExact(manipulation, root);
+                case PARALLEL:
+                    return (long) Api.CALCULATE_SIZE_PARALLEL.invokeExact(manipulation, root, PARALLELISM);
+                default:
+                    return (long) Api.CALCULATE_SIZE.invokeExact(manipulation, root);
+            }
+        }
+    }
+
+    private MetricsOverheadCheck() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Path root = SyntheticTree.create(SyntheticTree.Shape.WIDE);
+        boolean failed = false;
+        try {
+            Object metrics = (Object) Api.NEW_METRICS.invokeExact();
+            for (Scan scan : Scan.values()) {
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    round(scan, root.toString(), metrics);
+                }
+                double[] ratios = new double[ROUNDS];
+                for (int i = 0; i < ROUNDS; i++) {
+                    ratios[i] = round(scan, root.toString(), metrics);
+                }
+                Arrays.sort(ratios);
+                int k = confidenceRank(ROUNDS);
+                double median = ratios[ROUNDS / 2] - 1;
+                String result = String.format("%s: %+.2f%% overhead, 95%% confidence interval [%+.2f%%, %+.2f%%]",
+                        scan, median * 100, (ratios[k] - 1) * 100, (ratios[ROUNDS - 1 - k] - 1) * 100);
+                if (ratios[ROUNDS - 1 - k] - 1 > MAX_OVERHEAD) {
+                    System.err.println(result + ", may be more than " + MAX_OVERHEAD * 100 + "%");
+                    failed = true;
+                } else {
+                    System.out.println(result);
+                }
+            }
+        } finally {
+            SyntheticTree.delete(root);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a scan without, with, with and without metrics
+     * @return the time with metrics over the time without
+     */
+    private static double round(Scan scan, String root, Object metrics) throws Throwable {
+        long without = time(scan, root, null);
+        long with = time(scan, root, metrics);
+        with += time(scan, root, metrics);
+        without += time(scan, root, null);
+        return (double) with / without;
+    }
+
+    /**
+     * Times one scan of a new DirectoryManipulation
+     */
+    private static long time(Scan scan, String root, Object metrics) throws Throwable {
+        Object manipulation = (Object) Api.NEW_MANIPULATION.invokeExact();
+        if (metrics != null) {
+            Api.SET_METRICS.invokeExact(manipulation, metrics);
+        }
+        long start = System.nanoTime();
+        if (scan.run(manipulation, root) < 0) {
+            throw new IllegalStateException("Invalid size");
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Index in the sorted ratios of the lower bound of the 95% confidence
+     * interval of their median: the largest k such that fewer than k of n
+     * ratios fall below the median with probability at most 2.5%
+     */
+    private static int confidenceRank(int n) {
+        double probability = Math.pow(0.5, n);
+        double cumulative = probability;
+        int k = 0;
+        while (cumulative + probability * (n - k) / (k + 1) <= 0.025) {
+            probability = probability * (n - k) / (k + 1);
+            cumulative += probability;
+            k++;
+        }
+        return k;
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the translation of the [...] sets of the PathFilter globs to
+ * regular expressions: the characters that have a meaning in a Java
+ * character class but not in a glob set ('&&', '^' after the first
+ * position, '[', '\') must stay literal members. Run by the
+ * pathFilterCheck task, part of check.
+ */
+public final class PathFilterCheck {
+
+    /** glob, names it must match, names it must not match */
+    private static final String[][][] CASES = {
+        {{"[a&&b]"}, {"a", "&", "b"}, {"c", "&&", "ab"}},
+        {{"[x^y]"}, {"x", "^", "y"}, {"z"}},
+        {{"[^x]"}, {"^", "x"}, {"y"}},
+        {{"[!^]"}, {"a", "!"}, {"^"}},
+        {{"[]a]"}, {"]", "a"}, {"b"}},
+        {{"[!]a]"}, {"b"}, {"]", "a"}},
+        {{"[[]"}, {"["}, {"]"}},
+        {{"[a\\b]"}, {"a", "\\", "b"}, {"c"}},
+        {{"[a-c]"}, {"a", "b", "c"}, {"d", "-"}},
+        {{"*.[ch]"}, {"x.c", "x.h"}, {"x.o", "x.[ch]"}},
+    };
+
+    private PathFilterCheck() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        List<String> failures = new ArrayList<>();
+        for (String[][] c : CASES) {
+            String glob = c[0][0];
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile((String) Api.GLOB_TO_REGEX.invokeExact(glob));
+            } catch (IllegalArgumentException e) {
+                failures.add(glob + ": " + e.getMessage());
+                continue;
+            }
+            for (String name : c[1]) {
+                if (!pattern.matcher(name).matches()) {
+                    failures.add(glob + " does not match " + name + " (" + pattern + ")");
+                }
+            }
+            for (String name : c[2]) {
+                if (pattern.matcher(name).matches()) {
+                    failures.add(glob + " matches " + name + " (" + pattern + ")");
+                }
+            }
+        }
+        for (String failure : failures) {
+            System.err.println(failure);
+        }
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+        System.out.println(CASES.length + " globs checked");
+    }
+}
@@ -0,0 +1,160 @@
+package benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Generates directory trees of a given shape in a temporary directory.
+ * Every file is filled with text lines, one line in {@value #WORD_EVERY}
+ * contains {@link #WORD}, and one file per directory is named {@link #TARGET}
+ * so that findFile and findWord always have something to report.
+ */
+public final class SyntheticTree {
+
+    static final String WORD = "needle";
+    static final String TARGET = "target.txt";
+    static final int WORD_EVERY = 64;
+
+    private static final String[] EXTENSIONS = {"txt", "log", "java", "class", "json", "xml", "png", "dat"};
+    private static final byte[] LINE = "the quick brown fox jumps over the lazy dog 0123456789\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WORD_LINE = ("a line with the " + WORD + " in it\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Shapes of the generated trees
+     */
+    public enum Shape {
+        /** a chain of 500 nested directories with a few small files each */
+        DEEP(500, 1, 3, 4 * 1024),
+        /** 2,000 sibling directories with 10 files each */
+        WIDE(1, 2_000, 10, 4 * 1024),
+        /** 100 directories with 500 files of 64 bytes each */
+        TINY(1, 100, 500, 64),
+        /** 4 files of 64 MB */
+        HUGE(1, 1, 4, 64L * 1024 * 1024);
+
+        final int depth;
+        final int directories;
+        final int filesPerDirectory;
+        final long fileSize;
+
+        Shape(int depth, int directories, int filesPerDirectory, long fileSize) {
+            this.depth = depth;
+            this.directories = directories;
+            this.filesPerDirectory = filesPerDirectory;
+            this.fileSize = fileSize;
+        }
+    }
+
+    private SyntheticTree() {
+    }
+
+    /**
+     * Creates a tree of the given shape
+     * @param shape the shape of the tree
+     * @return the root of the new tree
+     */
+    static Path create(Shape shape) throws IOException {
+        Path root = Files.createTempDirectory("bench-" + shape.name().toLowerCase() + "-");
+        for (int d = 0; d < shape.directories; d++) {
+            Path dir = root.resolve("dir" + d);
+            for (int level = 0; level < shape.depth; level++) {
+                Files.createDirectories(dir);
+                for (int f = 0; f < shape.filesPerDirectory; f++) {
+                    String name = f == 0 ? TARGET : "file" + f + "." + EXTENSIONS[f % EXTENSIONS.length];
+                    writeText(dir.resolve(name), shape.fileSize);
+                }
+                dir = dir.resolve("d" + level);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Creates a tree for cleanDirectory: half of the files and directories are empty
+     * @param directories number of directories to create
+     * @param filesPerDirectory number of files in each directory
+     * @return the root of the new tree
+     */
+    static Path createWithEmptyEntries(int directories, int filesPerDirectory) throws IOException {
+        Path root = Files.createTempDirectory("bench-clean-");
+        for (int d = 0; d < directories; d++) {
+            Path dir = Files.createDirectories(root.resolve("dir" + d).resolve("sub"));
+            if (d % 2 == 0) {
+                continue;
+            }
+            for (int f = 0; f < filesPerDirectory; f++) {
+                Path file = dir.resolve("file" + f + ".txt");
+                if (f % 2 == 0) {
+                    Files.createFile(file);
+                } else {
+                    writeText(file, 128);
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Creates a single directory of empty files, the width of the listing is
+     * all that differs between two sizes
+     * @param width number of files in the directory
+     * @return the root of the new tree
+     */
+    static Path createFlat(int width) throws IOException {
+        Path root = Files.createTempDirectory("bench-flat-");
+        Path dir = Files.createDirectory(root.resolve("flat"));
+        for (int f = 0; f < width; f++) {
+            Files.createFile(dir.resolve(f == 0 ? TARGET : "file" + f + "." + EXTENSIONS[f % EXTENSIONS.length]));
+        }
+        return root;
+    }
+
+    /**
+     * Deletes a tree and everything in it
+     * @param root the root of the tree, may be null
+     */
+    static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes size bytes of text lines to file
+     */
+    private static void writeText(Path file, long size) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            long written = 0;
+            int line = 0;
+            while (written < size) {
+                byte[] bytes = line++ % WORD_EVERY == 0 ? WORD_LINE : LINE;
+                int n = (int) Math.min(bytes.length, size - written);
+                out.write(bytes, 0, n);
+                written += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
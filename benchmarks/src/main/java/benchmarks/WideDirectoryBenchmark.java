@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap used to walk one directory of growing width. The directories are
+ * read as streams, so the heap does not depend on the number of entries:
+ * the forks run with a heap of 64 MB, in which a File[] listing of a
+ * million entries does not fit, and the peakHeapBytes counter reports the
+ * highest heap usage of each iteration, which should stay flat across
+ * widths. The widest directory takes a while to create.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms64m", "-Xmx64m"})
+public class WideDirectoryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int width;
+
+    @Param({"4"})
+    public int parallelism;
+
+    private Path root;
+    private String rootPath;
+    private PrintStream originalOut;
+
+    /**
+     * Highest heap usage seen by the iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+        public long peakHeapBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            peakHeapBytes = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+        }
+
+        void record() {
+            long used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    used += pool.getPeakUsage().getUsed();
+                }
+            }
+            peakHeapBytes = Math.max(peakHeapBytes, used);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = SyntheticTree.createFlat(width);
+        rootPath = root.toString();
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        SyntheticTree.delete(root);
+    }
+
+    @Benchmark
+    public long calculateDirectorySize(Heap heap) throws Throwable {
+        long size = (long) Api.CALCULATE_SIZE.invokeExact(newManipulation(), rootPath);
+        heap.record();
+        return size;
+    }
+
+    @Benchmark
+    public long calculateDirectorySizeParallel(Heap heap) throws Throwable {
+        long size = (long) Api.CALCULATE_SIZE_PARALLEL.invokeExact(newManipulation(), rootPath, parallelism);
+        heap.record();
+        return size;
+    }
+
+    @Benchmark
+    public boolean findFile(Heap heap) throws Throwable {
+        boolean found = (boolean) Api.FIND_FILE.invokeExact(newManipulation(), rootPath, SyntheticTree.TARGET);
+        heap.record();
+        return found;
+    }
+
+    private static Object newManipulation() throws Throwable {
+        return (Object) Api.NEW_MANIPULATION.invokeExact();
+    }
+}